@@ -2,14 +2,13 @@ package tf.festival.webstone;
 
 import com.mojang.logging.LogUtils;
 import net.minecraft.server.MinecraftServer;
-import net.minecraft.server.level.ChunkHolder;
-import net.minecraft.server.level.ChunkMap;
-import net.minecraft.server.level.ServerLevel;
 import net.minecraft.world.item.CreativeModeTabs;
 import net.minecraft.world.level.block.Block;
 import net.minecraftforge.common.MinecraftForge;
 import net.minecraftforge.event.BuildCreativeModeTabContentsEvent;
 import net.minecraftforge.event.RegisterCommandsEvent;
+import net.minecraftforge.event.TickEvent;
+import net.minecraftforge.event.entity.player.PlayerEvent;
 import net.minecraftforge.event.server.ServerStartedEvent;
 import net.minecraftforge.event.server.ServerStoppingEvent;
 import net.minecraftforge.eventbus.api.IEventBus;
@@ -21,8 +20,6 @@ import net.minecraftforge.fml.javafmlmod.FMLJavaModLoadingContext;
 import net.minecraftforge.registries.RegistryObject;
 import org.slf4j.Logger;
 
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.net.UnknownHostException;
 
 @Mod(Webstone.MOD_ID)
@@ -76,11 +73,32 @@ public class Webstone {
             Webstone.LOGGER.error(ex.getMessage(), (Object[]) ex.getStackTrace());
         }
 
+        WebstoneChunkTickets.clear();
+        WebstoneWriteBuffer.clear();
+
         SERVER = null;
         WORLD_DATA = null;
         SOCKET_SERVER = null;
     }
 
+    @SubscribeEvent
+    public void onPlayerLoggedIn(PlayerEvent.PlayerLoggedInEvent event) {
+        WebstoneRegistryDirectory.updateName(event.getEntity().getGameProfile());
+    }
+
+    @SubscribeEvent
+    public void onServerTick(TickEvent.ServerTickEvent event) {
+        if (event.phase != TickEvent.Phase.END || SOCKET_SERVER == null) return;
+
+        SOCKET_SERVER.processMessages();
+        // Changes of this tick have to reach the world first, otherwise reconciling blocks loaded in the same tick
+        // would take them for changes made in the world and revert the registry
+        WebstoneWriteBuffer.flush();
+        WebstoneBlockJournal.reconcile();
+        SOCKET_SERVER.flushUpdates();
+        WebstoneChunkTickets.expire();
+    }
+
     @SubscribeEvent
     public void onBuildCreativeModeTabContents(BuildCreativeModeTabContentsEvent event) {
         if (event.getTabKey() == CreativeModeTabs.REDSTONE_BLOCKS) {
@@ -90,26 +108,4 @@ public class Webstone {
         }
     }
     // endregion
-
-    // https://gist.github.com/Mimickal/43aa3a75a52c2b55ab9358f8c9acd1f9
-    public static Iterable<ChunkHolder> getLoadedChunks(ServerLevel world) {
-        // Ironically, Reflection is probably the most portable way to do this.
-        try {
-            ChunkMap chunkMap = world.getChunkSource().chunkMap;
-            Method getChunks = chunkMap.getClass().getDeclaredMethod("getChunks");
-            getChunks.setAccessible(true);
-
-            // AFAIK there's no way to do this cast that Java thinks is safe.
-            // ChunkMap.getChunks() only ever returns this type, so it's safe enough.
-            @SuppressWarnings("unchecked") Iterable<ChunkHolder> chunkIterator = (Iterable<ChunkHolder>) getChunks.invoke(chunkMap);
-
-            return chunkIterator;
-
-            // Any of these exceptions being thrown means we messed something up above, so just explode.
-        } catch (NoSuchMethodException e) {
-            throw new RuntimeException("ServerChunkCache.getChunks() isn't a method, apparently.", e);
-        } catch (IllegalAccessException | InvocationTargetException e) {
-            throw new RuntimeException("Failed to invoke ServerChunkCache.getChunks()", e);
-        }
-    }
 }
\ No newline at end of file
@@ -0,0 +1,462 @@
+package tf.festival.webstone;
+
+import net.minecraft.core.BlockPos;
+import net.minecraft.resources.ResourceLocation;
+import tf.festival.webstone.data.WebstoneBlockGroupSnapshot;
+import tf.festival.webstone.data.WebstoneBlockSnapshot;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.UUID;
+
+// Compact encoding used by clients negotiating the "webstone.binary.v1" subprotocol.
+// Every message starts with the ordinal of its SocketMessageType, followed by the payload fields in declaration order.
+// UUIDs are written as 16 raw bytes, integers as (zigzag) varints and strings as varint length + UTF-8 bytes.
+class WebstoneBinaryCodec {
+    public static final String PROTOCOL = "webstone.binary.v1";
+
+    private static final int BLOCK_POWERED = 1;
+    private static final int BLOCK_HAS_NAME = 1 << 1;
+    private static final int BLOCK_HAS_GROUP = 1 << 2;
+    private static final int BLOCK_HAS_LOCATION = 1 << 3;
+    private static final int BLOCK_KEEP_LOADED = 1 << 4;
+
+    private static final int PATCH_HAS_ID = 1;
+    private static final int PATCH_HAS_INDEX = 1 << 1;
+    private static final int PATCH_HAS_BLOCK = 1 << 2;
+    private static final int PATCH_HAS_BLOCK_GROUP = 1 << 3;
+
+    // Writers are reused for every message encoded on the same thread, encoded messages are exact-size copies, see WebstoneJsonEncoder
+    private static final ThreadLocal<Writer> WRITERS = ThreadLocal.withInitial(Writer::new);
+
+    // region Encoding
+    public static ByteBuffer encode(SocketMessageType type, Object payload) {
+        Writer writer = WRITERS.get();
+        writer.reset();
+        writer.writeByte(type.ordinal());
+
+        if (payload instanceof ServerErrorMessage message) {
+            writer.writeNullableString(message.message);
+            writer.writeVarInt(message.stackTrace != null ? message.stackTrace.length : 0);
+
+            if (message.stackTrace != null) {
+                for (StackTraceElement element : message.stackTrace) {
+                    writer.writeString(element.toString());
+                }
+            }
+        } else if (payload instanceof WelcomeMessage message) {
+            writer.writeUUID(message.socketId);
+            writer.writeVarLong(message.expireTime.toEpochMilli());
+            writeCapabilities(writer, message.capabilities);
+        } else if (payload instanceof AuthenticationResponseMessage message) {
+            writer.writeBoolean(message.authorized);
+            writer.writeNullableString(message.message);
+        } else if (payload instanceof SubscriptionResponseMessage message) {
+            writer.writeBoolean(message.subscribed);
+            writer.writeNullableString(message.message);
+            writer.writeNullableUUID(message.registryId);
+        } else if (payload instanceof UnsubscriptionMessage message) {
+            writer.writeUUID(message.registryId);
+        } else if (payload instanceof BlockListMessage message) {
+            writer.writeVarInt(message.blockLists.size());
+
+            for (Map.Entry<UUID, String> entry : message.blockLists.entrySet()) {
+                writer.writeUUID(entry.getKey());
+                writer.writeString(entry.getValue());
+            }
+
+            // Appended, so decoders of the unpaged list can ignore them
+            writer.writeVarInt(message.offset != null ? message.offset : 0);
+            writer.writeVarInt(message.total != null ? message.total : message.blockLists.size());
+        } else if (payload instanceof BlocksMessage message) {
+            writer.writeUUID(message.registryId);
+            writer.writeVarLong(message.version);
+            writer.writeVarInt(message.blocks.size());
+
+            for (WebstoneBlockSnapshot block : message.blocks) {
+                writeBlock(writer, block);
+            }
+        } else if (payload instanceof BlockGroupsMessage message) {
+            writer.writeUUID(message.registryId);
+            writer.writeVarLong(message.version);
+            writer.writeVarInt(message.blockGroups.size());
+
+            for (WebstoneBlockGroupSnapshot blockGroup : message.blockGroups) {
+                writeBlockGroup(writer, blockGroup.groupId(), blockGroup.name(), blockGroup.blockIds());
+            }
+        } else if (payload instanceof BlockEventMessage message) {
+            writeBlockEvent(writer, message);
+        } else if (payload instanceof BlockGroupEventMessage message) {
+            writeBlockGroup(writer, message.groupId, message.name, message.blockIds);
+        } else if (payload instanceof BlockUpdatesMessage message) {
+            writer.writeUUID(message.registryId);
+
+            writer.writeVarInt(message.blocks.size());
+            for (BlockEventMessage blockMessage : message.blocks) {
+                writeBlockEvent(writer, blockMessage);
+            }
+
+            writer.writeVarInt(message.blockGroups.size());
+            for (BlockGroupEventMessage blockGroupMessage : message.blockGroups) {
+                writeBlockGroup(writer, blockGroupMessage.groupId, blockGroupMessage.name, blockGroupMessage.blockIds);
+            }
+        } else if (payload instanceof AreaMessage message) {
+            writer.writeNullableString(message.dimension);
+            writer.writeSignedVarInt(message.minX);
+            writer.writeSignedVarInt(message.minZ);
+            writer.writeSignedVarInt(message.maxX);
+            writer.writeSignedVarInt(message.maxZ);
+            writer.writeVarInt(message.blocks.size());
+
+            // Blocks can belong to different registries, so the registry id is written for each of them
+            for (WebstoneBlockSnapshot block : message.blocks) {
+                writer.writeUUID(block.registryId());
+                writeBlock(writer, block);
+            }
+        } else if (payload instanceof RegistryPatchMessage message) {
+            writer.writeUUID(message.registryId);
+            writer.writeVarLong(message.version);
+            writer.writeByte((message.id != null ? PATCH_HAS_ID : 0)
+                | (message.index != null ? PATCH_HAS_INDEX : 0)
+                | (message.block != null ? PATCH_HAS_BLOCK : 0)
+                | (message.blockGroup != null ? PATCH_HAS_BLOCK_GROUP : 0));
+
+            if (message.id != null) writer.writeUUID(message.id);
+            if (message.index != null) writer.writeSignedVarInt(message.index);
+            if (message.block != null) writeBlockEvent(writer, message.block);
+            if (message.blockGroup != null) {
+                writeBlockGroup(writer, message.blockGroup.groupId, message.blockGroup.name, message.blockGroup.blockIds);
+            }
+        } else {
+            throw new IllegalArgumentException(String.format("Payload type %s cannot be encoded", payload.getClass().getSimpleName()));
+        }
+
+        return writer.toByteBuffer();
+    }
+
+    private static void writeBlockEvent(Writer writer, BlockEventMessage message) {
+        writeBlock(writer, message.blockId, message.name, message.powered, message.power, message.groupId != null ? UUID.fromString(message.groupId) : null, null, null, message.keepLoaded);
+    }
+
+    private static void writeBlock(Writer writer, WebstoneBlockSnapshot block) {
+        writeBlock(writer, block.blockId(), block.name(), block.powered(), block.power(), block.groupId(), block.dimension(), block.position(), block.keepLoaded());
+    }
+
+    private static void writeBlock(Writer writer, UUID blockId, String name, boolean powered, int power, UUID groupId, ResourceLocation dimension, BlockPos position, boolean keepLoaded) {
+        writer.writeUUID(blockId);
+        writer.writeByte((powered ? BLOCK_POWERED : 0) | (name != null ? BLOCK_HAS_NAME : 0) | (groupId != null ? BLOCK_HAS_GROUP : 0)
+            | (dimension != null ? BLOCK_HAS_LOCATION : 0) | (keepLoaded ? BLOCK_KEEP_LOADED : 0));
+        writer.writeByte(power);
+
+        if (name != null) writer.writeString(name);
+        if (groupId != null) writer.writeUUID(groupId);
+
+        if (dimension != null) {
+            writer.writeString(dimension.toString());
+            writer.writeSignedVarInt(position.getX());
+            writer.writeSignedVarInt(position.getY());
+            writer.writeSignedVarInt(position.getZ());
+        }
+    }
+
+    private static void writeBlockGroup(Writer writer, UUID groupId, String name, Collection<UUID> blockIds) {
+        writer.writeNullableUUID(groupId);
+        writer.writeNullableString(name);
+        writer.writeVarInt(blockIds != null ? blockIds.size() : 0);
+
+        if (blockIds != null) {
+            for (UUID blockId : blockIds) {
+                writer.writeUUID(blockId);
+            }
+        }
+    }
+
+    private static void writeCapabilities(Writer writer, SocketCapability[] capabilities) {
+        writer.writeVarInt(capabilities.length);
+
+        for (SocketCapability capability : capabilities) {
+            writer.writeByte(capability.ordinal());
+        }
+    }
+    // endregion
+
+    // region Decoding
+    public static SocketMessage<?> decode(ByteBuffer buffer) {
+        return readMessage(new Reader(buffer), false);
+    }
+
+    private static SocketMessage<?> readMessage(Reader reader, boolean batched) {
+        int typeIndex = reader.readByte();
+        if (typeIndex >= SocketMessageType.values().length) {
+            throw new IllegalArgumentException("Unknown payload type");
+        }
+
+        SocketMessageType type = SocketMessageType.values()[typeIndex];
+        if (batched) BatchMessage.checkType(type);
+
+        Object payload = switch (type) {
+            case AUTH_REQ -> {
+                AuthenticationRequestMessage message = new AuthenticationRequestMessage();
+                message.passphrase = reader.readNullableString();
+                message.capabilities = new ArrayList<>();
+
+                int count = reader.readVarInt();
+                for (int i = 0; i < count; i++) {
+                    int capabilityIndex = reader.readByte();
+
+                    // Capabilities unknown to this server version are ignored
+                    if (capabilityIndex < SocketCapability.values().length) {
+                        message.capabilities.add(SocketCapability.values()[capabilityIndex]);
+                    }
+                }
+
+                yield message;
+            }
+            case SUBSCRIBE -> {
+                SubscriptionMessage message = new SubscriptionMessage();
+                message.registryId = reader.readUUID();
+                message.passphrase = reader.readNullableString();
+
+                yield message;
+            }
+            case UNSUBSCRIBE -> new UnsubscriptionMessage(reader.readUUID());
+            case BATCH -> {
+                BatchMessage message = new BatchMessage();
+
+                int count = reader.readVarInt();
+                BatchMessage.checkSize(count);
+
+                for (int i = 0; i < count; i++) {
+                    message.messages.add(readMessage(reader, true));
+                }
+
+                yield message;
+            }
+            case QUERY_AREA -> {
+                AreaRequestMessage message = new AreaRequestMessage();
+                message.dimension = reader.readNullableString();
+                message.minX = reader.readSignedVarInt();
+                message.minZ = reader.readSignedVarInt();
+                message.maxX = reader.readSignedVarInt();
+                message.maxZ = reader.readSignedVarInt();
+
+                yield message;
+            }
+            case SYNC -> {
+                SyncRequestMessage message = new SyncRequestMessage();
+                message.registryId = reader.readUUID();
+
+                yield message;
+            }
+            case BLOCK_LISTS -> {
+                BlockListRequestMessage message = new BlockListRequestMessage();
+                message.prefix = reader.readNullableString();
+                message.offset = reader.readVarInt();
+                message.limit = reader.readVarInt();
+
+                yield message;
+            }
+            case BLOCK_STATE, BLOCK_POWER, RENAME_BLOCK, UNREGISTER_BLOCK, CHANGE_BLOCK_GROUP, KEEP_LOADED, BLOCK_SET -> readBlockEvent(reader);
+            case CREATE_GROUP, RENAME_GROUP, DELETE_GROUP -> {
+                BlockGroupEventMessage message = new BlockGroupEventMessage();
+                message.groupId = reader.readNullableUUID();
+                message.name = reader.readNullableString();
+                message.blockIds = new ArrayList<>();
+
+                int count = reader.readVarInt();
+                for (int i = 0; i < count; i++) {
+                    message.blockIds.add(reader.readUUID());
+                }
+
+                yield message;
+            }
+            case CHANGE_BLOCK_INDEX, CHANGE_GROUP_INDEX -> {
+                ChangeIndexMessage message = new ChangeIndexMessage();
+                message.id = reader.readUUID();
+                message.newIndex = reader.readSignedVarInt();
+
+                yield message;
+            }
+            default -> throw new IllegalArgumentException("Unknown payload type");
+        };
+
+        return new SocketMessage<>(type, payload);
+    }
+
+    private static BlockEventMessage readBlockEvent(Reader reader) {
+        BlockEventMessage message = new BlockEventMessage();
+        message.blockId = reader.readUUID();
+
+        int flags = reader.readByte();
+        message.powered = (flags & BLOCK_POWERED) != 0;
+        message.keepLoaded = (flags & BLOCK_KEEP_LOADED) != 0;
+        message.power = reader.readByte();
+
+        if ((flags & BLOCK_HAS_NAME) != 0) message.name = reader.readString();
+        if ((flags & BLOCK_HAS_GROUP) != 0) message.groupId = reader.readUUID().toString();
+
+        return message;
+    }
+    // endregion
+
+    static class Writer {
+        private static final int MAX_POOLED_CAPACITY = 1 << 20;
+
+        private ByteBuffer buffer = ByteBuffer.allocate(256);
+
+        public void reset() {
+            if (buffer.capacity() > MAX_POOLED_CAPACITY) {
+                buffer = ByteBuffer.allocate(256);
+            }
+
+            buffer.clear();
+        }
+
+        private void ensureCapacity(int length) {
+            if (buffer.remaining() >= length) return;
+
+            ByteBuffer newBuffer = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + length));
+            buffer.flip();
+            newBuffer.put(buffer);
+
+            buffer = newBuffer;
+        }
+
+        public void writeByte(int value) {
+            ensureCapacity(1);
+            buffer.put((byte) value);
+        }
+
+        public void writeBoolean(boolean value) {
+            writeByte(value ? 1 : 0);
+        }
+
+        public void writeVarInt(int value) {
+            writeVarLong(value & 0xFFFFFFFFL);
+        }
+
+        public void writeSignedVarInt(int value) {
+            writeVarInt((value << 1) ^ (value >> 31));
+        }
+
+        public void writeVarLong(long value) {
+            ensureCapacity(10);
+
+            while ((value & ~0x7FL) != 0) {
+                buffer.put((byte) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+
+            buffer.put((byte) value);
+        }
+
+        public void writeUUID(UUID value) {
+            ensureCapacity(16);
+            buffer.putLong(value.getMostSignificantBits());
+            buffer.putLong(value.getLeastSignificantBits());
+        }
+
+        public void writeNullableUUID(UUID value) {
+            writeBoolean(value != null);
+            if (value != null) writeUUID(value);
+        }
+
+        public void writeString(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+
+            writeVarInt(bytes.length);
+            ensureCapacity(bytes.length);
+            buffer.put(bytes);
+        }
+
+        // Length is offset by one, so 0 can mark a missing string
+        public void writeNullableString(String value) {
+            if (value == null) {
+                writeVarInt(0);
+                return;
+            }
+
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+
+            writeVarInt(bytes.length + 1);
+            ensureCapacity(bytes.length);
+            buffer.put(bytes);
+        }
+
+        public ByteBuffer toByteBuffer() {
+            return ByteBuffer.wrap(Arrays.copyOf(buffer.array(), buffer.position()));
+        }
+    }
+
+    static class Reader {
+        private final ByteBuffer buffer;
+
+        public Reader(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        public int readByte() {
+            return buffer.get() & 0xFF;
+        }
+
+        public int readVarInt() {
+            long value = readVarLong();
+
+            if (value > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Malformed varint");
+            }
+
+            return (int) value;
+        }
+
+        public int readSignedVarInt() {
+            int value = (int) readVarLong();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        public long readVarLong() {
+            long value = 0;
+
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = buffer.get();
+                value |= (long) (b & 0x7F) << shift;
+
+                if ((b & 0x80) == 0) return value;
+            }
+
+            throw new IllegalArgumentException("Malformed varint");
+        }
+
+        public UUID readUUID() {
+            return new UUID(buffer.getLong(), buffer.getLong());
+        }
+
+        public UUID readNullableUUID() {
+            return buffer.get() != 0 ? readUUID() : null;
+        }
+
+        public String readString() {
+            return readString(readVarInt());
+        }
+
+        public String readNullableString() {
+            int length = readVarInt();
+            return length == 0 ? null : readString(length - 1);
+        }
+
+        private String readString(int length) {
+            if (length > buffer.remaining()) {
+                throw new IllegalArgumentException("Malformed string");
+            }
+
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+}
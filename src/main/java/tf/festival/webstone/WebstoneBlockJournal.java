@@ -0,0 +1,83 @@
+package tf.festival.webstone;
+
+import tf.festival.webstone.blockentity.WebstoneRemoteBlockEntity;
+import tf.festival.webstone.data.WebstoneBlock;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.UUID;
+
+// Blocks changed while their chunk wasn't loaded, so the registry holds a state the world doesn't have yet.
+// Block entities queue their block when they are loaded, and the queue is reconciled at the end of the tick, as
+// blocks can't be changed while their chunk is still being loaded. Only used on the server thread.
+public class WebstoneBlockJournal {
+    // Persisted with the world data, so changes still reach the world after a restart
+    private static final Set<UUID> pendingBlockIds = new HashSet<>();
+    private static final Set<UUID> loadedBlockIds = new LinkedHashSet<>();
+
+    public static void markPending(UUID blockId) {
+        if (pendingBlockIds.add(blockId) && Webstone.WORLD_DATA != null) {
+            Webstone.WORLD_DATA.setDirty();
+        }
+    }
+
+    public static void markLoaded(UUID blockId) {
+        loadedBlockIds.add(blockId);
+    }
+
+    public static void forget(UUID blockId) {
+        pendingBlockIds.remove(blockId);
+    }
+
+    public static Collection<UUID> getPendingBlockIds() {
+        return pendingBlockIds;
+    }
+
+    public static void setPendingBlockIds(Collection<UUID> blockIds) {
+        pendingBlockIds.clear();
+        pendingBlockIds.addAll(blockIds);
+    }
+
+    public static void clear() {
+        pendingBlockIds.clear();
+        loadedBlockIds.clear();
+    }
+
+    // Pending changes are applied to the world in a single update per block. Blocks whose world state differs without
+    // a pending change were changed in the world instead (e.g. by restoring a backup), so the registry takes over the
+    // world state and the change is broadcast to clients.
+    public static void reconcile() {
+        if (loadedBlockIds.isEmpty()) return;
+
+        ArrayList<UUID> blockIds = new ArrayList<>(loadedBlockIds);
+        loadedBlockIds.clear();
+
+        for (UUID blockId : blockIds) {
+            WebstoneBlock block = WebstoneRegistry.getBlockInAnyRegistry(blockId);
+            if (block == null) continue;
+
+            WebstoneRemoteBlockEntity blockEntity = block.getBlockEntity();
+            if (blockEntity == null || blockEntity.isRemoved()) continue;
+
+            boolean pending = pendingBlockIds.remove(blockId);
+            if (pending && Webstone.WORLD_DATA != null) Webstone.WORLD_DATA.setDirty();
+
+            if (blockEntity.isPowered() == block.isPowered() && blockEntity.getPower() == block.getPower()) continue;
+
+            if (pending) {
+                blockEntity.setState(block.isPowered(), block.getPower());
+            } else {
+                // The block entity already has these values, so setting them only updates the registry
+                boolean changed = block.setPowered(blockEntity.isPowered()) | block.setPower(blockEntity.getPower());
+
+                if (changed) {
+                    if (Webstone.WORLD_DATA != null) Webstone.WORLD_DATA.setDirty();
+                    if (Webstone.SOCKET_SERVER != null) Webstone.SOCKET_SERVER.broadcastBlockUpdated(block);
+                }
+            }
+        }
+    }
+}
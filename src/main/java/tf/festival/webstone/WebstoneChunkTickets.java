@@ -0,0 +1,87 @@
+package tf.festival.webstone;
+
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.registries.Registries;
+import net.minecraft.resources.ResourceKey;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.server.level.TicketType;
+import net.minecraft.world.level.ChunkPos;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Keeps the chunks of blocks marked "keep loaded" loaded while they are controlled remotely. Changing such a block
+// takes a ticket for its chunk, which is released once the chunk wasn't used for KeepLoadedTimeout seconds. At most
+// MaxKeptLoadedChunks chunks are held, the least recently used one is released first. Only used on the server thread.
+public class WebstoneChunkTickets {
+    // Same distance as forced chunks, so the chunk is ticking and redstone changes propagate
+    private static final int TICKET_DISTANCE = 2;
+    private static final TicketType<ChunkPos> TICKET_TYPE = TicketType.create("webstone", Comparator.comparingLong(ChunkPos::toLong));
+
+    private record Ticket(ResourceLocation dimension, ChunkPos chunkPos) {
+    }
+
+    // Last use in milliseconds, in access order so the least recently used ticket comes first
+    private static final LinkedHashMap<Ticket, Long> tickets = new LinkedHashMap<>(16, 0.75f, true);
+
+    public static void touch(ResourceLocation dimension, BlockPos position) {
+        int maxTickets = WebstoneConfig.MAX_KEPT_LOADED_CHUNKS.get();
+        if (maxTickets == 0 || Webstone.SERVER == null) return;
+
+        Ticket ticket = new Ticket(dimension, new ChunkPos(position));
+        if (tickets.put(ticket, System.currentTimeMillis()) != null) return;
+
+        ServerLevel level = getLevel(dimension);
+
+        if (level == null) {
+            tickets.remove(ticket);
+            return;
+        }
+
+        level.getChunkSource().addRegionTicket(TICKET_TYPE, ticket.chunkPos(), TICKET_DISTANCE, ticket.chunkPos());
+
+        Iterator<Ticket> iterator = tickets.keySet().iterator();
+        while (tickets.size() > maxTickets && iterator.hasNext()) {
+            release(iterator.next());
+            iterator.remove();
+        }
+    }
+
+    // Called at the end of every tick
+    public static void expire() {
+        if (tickets.isEmpty()) return;
+
+        long expireTime = System.currentTimeMillis() - WebstoneConfig.KEEP_LOADED_TIMEOUT.get() * 1000L;
+        Iterator<Map.Entry<Ticket, Long>> iterator = tickets.entrySet().iterator();
+
+        while (iterator.hasNext()) {
+            Map.Entry<Ticket, Long> entry = iterator.next();
+
+            // Ordered by last use, so all remaining tickets were used more recently
+            if (entry.getValue() > expireTime) break;
+
+            release(entry.getKey());
+            iterator.remove();
+        }
+    }
+
+    // Tickets vanish with their levels, so they are only forgotten when the server stops
+    public static void clear() {
+        tickets.clear();
+    }
+
+    private static void release(Ticket ticket) {
+        ServerLevel level = getLevel(ticket.dimension());
+
+        if (level != null) {
+            level.getChunkSource().removeRegionTicket(TICKET_TYPE, ticket.chunkPos(), TICKET_DISTANCE, ticket.chunkPos());
+        }
+    }
+
+    private static ServerLevel getLevel(ResourceLocation dimension) {
+        return Webstone.SERVER != null ? Webstone.SERVER.getLevel(ResourceKey.create(Registries.DIMENSION, dimension)) : null;
+    }
+}
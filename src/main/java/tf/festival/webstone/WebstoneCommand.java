@@ -9,6 +9,7 @@ import net.minecraft.commands.Commands;
 import net.minecraft.network.chat.Component;
 import tf.festival.webstone.WebstoneRegistry.WebstoneRegistryContext;
 
+import java.util.Collection;
 import java.util.UUID;
 import java.util.concurrent.ThreadLocalRandom;
 
@@ -26,6 +27,12 @@ public class WebstoneCommand {
             .then(Commands.literal("setpass")
                 .then(Commands.argument("passphrase", StringArgumentType.string())
                     .executes(WebstoneCommand::setPassphrase)))
+            .then(Commands.literal("sessions")
+                .requires((source) -> source.hasPermission(2))
+                .executes(WebstoneCommand::listSessions))
+            .then(Commands.literal("stats")
+                .requires((source) -> source.hasPermission(2))
+                .executes(WebstoneCommand::printStats))
         );
     }
 
@@ -42,6 +49,14 @@ public class WebstoneCommand {
         context.getSource().getPlayer().sendSystemMessage(Component.literal("/webstone context (server | player)"));
         context.getSource().getPlayer().sendSystemMessage(Component.literal("  Sets a custom passphrase for your personal block list."));
 
+        if (context.getSource().hasPermission(2)) {
+            context.getSource().getPlayer().sendSystemMessage(Component.literal("/webstone sessions"));
+            context.getSource().getPlayer().sendSystemMessage(Component.literal("  Lists connected WebSocket clients and their outbound queue."));
+
+            context.getSource().getPlayer().sendSystemMessage(Component.literal("/webstone stats"));
+            context.getSource().getPlayer().sendSystemMessage(Component.literal("  Shows statistics of the queue of client messages applied every tick."));
+        }
+
         return Command.SINGLE_SUCCESS;
     }
 
@@ -90,6 +105,46 @@ public class WebstoneCommand {
         return Command.SINGLE_SUCCESS;
     }
 
+    private static int listSessions(CommandContext<CommandSourceStack> context) {
+        if (Webstone.SOCKET_SERVER == null) {
+            context.getSource().sendFailure(Component.literal("The WebSocket server is not running."));
+            return 0;
+        }
+
+        Collection<WebstoneSocketSession> sessions = Webstone.SOCKET_SERVER.getSessions();
+        context.getSource().sendSuccess(() -> Component.literal(String.format("%d client(s) connected.", sessions.size())), false);
+
+        for (WebstoneSocketSession session : sessions) {
+            String message = String.format("%s (%s, %s): %d registries, %d frames / %d bytes queued%s",
+                session.getSocketId(),
+                session.getSocket().getRemoteSocketAddress().getAddress().getHostAddress(),
+                session.getAuthenticationState(),
+                session.getRegistryIds().size(),
+                session.getQueuedFrames(),
+                session.getQueuedBytes(),
+                session.isCongested() ? " (congested)" : "");
+
+            context.getSource().sendSuccess(() -> Component.literal(message), false);
+        }
+
+        return Command.SINGLE_SUCCESS;
+    }
+
+    private static int printStats(CommandContext<CommandSourceStack> context) {
+        if (Webstone.SOCKET_SERVER == null) {
+            context.getSource().sendFailure(Component.literal("The WebSocket server is not running."));
+            return 0;
+        }
+
+        WebstoneMessageQueue messageQueue = Webstone.SOCKET_SERVER.getMessageQueue();
+
+        context.getSource().sendSuccess(() -> Component.literal(String.format("Queued messages: %d (%d carried over last tick)", messageQueue.getQueueDepth(), messageQueue.getLastCarriedOverCount())), false);
+        context.getSource().sendSuccess(() -> Component.literal(String.format("Processed messages: %d (%d last tick, took %.3f ms)", messageQueue.getProcessedCount(), messageQueue.getLastProcessedCount(), messageQueue.getLastProcessingTime() / 1e6)), false);
+        context.getSource().sendSuccess(() -> Component.literal(String.format("Wait time: %.3f ms average last tick, %.3f ms max", messageQueue.getLastAverageWaitTime() / 1e6, messageQueue.getMaxWaitTime() / 1e6)), false);
+
+        return Command.SINGLE_SUCCESS;
+    }
+
     private static int setPassphrase(CommandContext<CommandSourceStack> context) {
         WebstoneRegistry.getOrCreateRegistry(context.getSource().getPlayer().getUUID()).setPassphrase(StringArgumentType.getString(context, "passphrase"));
         context.getSource().getPlayer().sendSystemMessage(Component.literal("Your passphrase has been successfully changed."));
@@ -3,6 +3,15 @@ package tf.festival.webstone;
 import net.minecraftforge.common.ForgeConfigSpec;
 
 public class WebstoneConfig {
+    public enum SlowConsumerPolicy {
+        // Keep only the latest update of every block and group until the client catches up
+        COALESCE,
+        // Drop all messages and send full lists once the client caught up
+        RESYNC,
+        // Close the connection
+        DISCONNECT,
+    }
+
     public static final ForgeConfigSpec.Builder BUILDER = new ForgeConfigSpec.Builder();
     public static final ForgeConfigSpec SPEC;
 
@@ -14,6 +23,25 @@ public class WebstoneConfig {
     public static final ForgeConfigSpec.ConfigValue<String> CERTIFICATE_KEY_FILENAME;
     public static final ForgeConfigSpec.ConfigValue<String> CERTIFICATE_KEY_PASS;
 
+    public static final ForgeConfigSpec.ConfigValue<Boolean> WEBSOCKET_COMPRESSION;
+    public static final ForgeConfigSpec.ConfigValue<Integer> COMPRESSION_THRESHOLD;
+    public static final ForgeConfigSpec.ConfigValue<Integer> OUTBOUND_QUEUE_LIMIT;
+    public static final ForgeConfigSpec.ConfigValue<SlowConsumerPolicy> SLOW_CONSUMER_POLICY;
+    public static final ForgeConfigSpec.ConfigValue<Integer> MESSAGE_TICK_BUDGET;
+    public static final ForgeConfigSpec.ConfigValue<Integer> MAX_BATCH_SIZE;
+    public static final ForgeConfigSpec.ConfigValue<Integer> MAX_BLOCK_LIST_PAGE_SIZE;
+
+    public static final ForgeConfigSpec.ConfigValue<Integer> AUTHENTICATION_TIMEOUT;
+    public static final ForgeConfigSpec.ConfigValue<Integer> TIMEOUT_TICK_RESOLUTION;
+
+    public static final ForgeConfigSpec.ConfigValue<Integer> AUTHENTICATION_WORKERS;
+    public static final ForgeConfigSpec.ConfigValue<Integer> AUTHENTICATION_QUEUE_SIZE;
+    public static final ForgeConfigSpec.ConfigValue<Integer> CREDENTIAL_CACHE_SIZE;
+    public static final ForgeConfigSpec.ConfigValue<Integer> CREDENTIAL_CACHE_DURATION;
+
+    public static final ForgeConfigSpec.ConfigValue<Integer> KEEP_LOADED_TIMEOUT;
+    public static final ForgeConfigSpec.ConfigValue<Integer> MAX_KEPT_LOADED_CHUNKS;
+
     static {
         BUILDER.push("Webstone Configuration");
 
@@ -25,6 +53,25 @@ public class WebstoneConfig {
         CERTIFICATE_KEY_FILENAME = BUILDER.comment("Filename of the certificate private key inside \".minecraft/data\". (Default: key.pem)").define("CertificateKeyFilename", "key.pem");
         CERTIFICATE_KEY_PASS = BUILDER.comment("Passphrase used for the private key.").define("CertificateKeyPass", "");
 
+        WEBSOCKET_COMPRESSION = BUILDER.comment("Specifies if messages should be compressed for clients supporting permessage-deflate.").define("WebSocketCompression", true);
+        COMPRESSION_THRESHOLD = BUILDER.comment("Minimum size in bytes of a message before it is compressed. (Default: 1024)").defineInRange("CompressionThreshold", 1024, 0, 1048576);
+        OUTBOUND_QUEUE_LIMIT = BUILDER.comment("Maximum number of bytes queued for a client before it is considered a slow consumer. (Default: 1048576)").defineInRange("OutboundQueueLimit", 1048576, 16384, 268435456);
+        SLOW_CONSUMER_POLICY = BUILDER.comment("How to handle slow consumers: COALESCE keeps only the latest block and group updates, RESYNC sends full lists once the client caught up, DISCONNECT closes the connection. (Default: COALESCE)").defineEnum("SlowConsumerPolicy", SlowConsumerPolicy.COALESCE);
+        MESSAGE_TICK_BUDGET = BUILDER.comment("Nanoseconds per server tick spent applying client messages, remaining messages are carried over to the next tick. (Default: 5000000)").defineInRange("MessageTickBudget", 5000000, 100000, 50000000);
+        MAX_BATCH_SIZE = BUILDER.comment("Maximum number of messages in a single BATCH message. (Default: 1024)").defineInRange("MaxBatchSize", 1024, 1, 65536);
+        MAX_BLOCK_LIST_PAGE_SIZE = BUILDER.comment("Maximum number of block lists returned for a single BLOCK_LISTS request. (Default: 500)").defineInRange("MaxBlockListPageSize", 500, 1, 10000);
+
+        AUTHENTICATION_TIMEOUT = BUILDER.comment("Seconds a client has to authenticate before it is disconnected. (Default: 15)").defineInRange("AuthenticationTimeout", 15, 1, 3600);
+        TIMEOUT_TICK_RESOLUTION = BUILDER.comment("Resolution in milliseconds of the scheduler handling socket timeouts. (Default: 100)").defineInRange("TimeoutTickResolution", 100, 10, 1000);
+
+        AUTHENTICATION_WORKERS = BUILDER.comment("Number of threads verifying passphrases. (Default: 2)").defineInRange("AuthenticationWorkers", 2, 1, 64);
+        AUTHENTICATION_QUEUE_SIZE = BUILDER.comment("Maximum number of pending passphrase verifications before clients are turned away. (Default: 64)").defineInRange("AuthenticationQueueSize", 64, 1, 4096);
+        CREDENTIAL_CACHE_SIZE = BUILDER.comment("Maximum number of remembered successful passphrase verifications, 0 to disable. (Default: 256)").defineInRange("CredentialCacheSize", 256, 0, 65536);
+        CREDENTIAL_CACHE_DURATION = BUILDER.comment("Seconds a successful passphrase verification is remembered. (Default: 300)").defineInRange("CredentialCacheDuration", 300, 1, 86400);
+
+        KEEP_LOADED_TIMEOUT = BUILDER.comment("Seconds the chunk of a block kept loaded stays loaded after the block was last changed remotely. (Default: 60)").defineInRange("KeepLoadedTimeout", 60, 1, 86400);
+        MAX_KEPT_LOADED_CHUNKS = BUILDER.comment("Maximum number of chunks kept loaded at once for blocks kept loaded, 0 to disable. (Default: 64)").defineInRange("MaxKeptLoadedChunks", 64, 0, 4096);
+
         BUILDER.pop();
         SPEC = BUILDER.build();
     }
@@ -0,0 +1,62 @@
+package tf.festival.webstone;
+
+import at.favre.lib.crypto.bcrypt.BCrypt;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+
+// Remembers successful bcrypt verifications for a short time, so reconnecting clients don't pay the full hashing cost again.
+// Entries are keyed by the hash and a SHA-256 digest of the passphrase, the passphrase itself is never stored.
+class WebstoneCredentialCache {
+    private static final LinkedHashMap<String, Long> verifiedCredentials = new LinkedHashMap<>(16, 0.75f, true);
+
+    public static boolean verify(String passphrase, String hash) {
+        String key = getKey(passphrase, hash);
+
+        synchronized (verifiedCredentials) {
+            Long expireTime = verifiedCredentials.get(key);
+
+            if (expireTime != null) {
+                if (System.nanoTime() - expireTime < 0) return true;
+
+                verifiedCredentials.remove(key);
+            }
+        }
+
+        if (!BCrypt.verifyer().verify(passphrase.toCharArray(), hash).verified) return false;
+
+        int maxSize = WebstoneConfig.CREDENTIAL_CACHE_SIZE.get();
+        if (maxSize <= 0) return true;
+
+        synchronized (verifiedCredentials) {
+            verifiedCredentials.put(key, System.nanoTime() + TimeUnit.SECONDS.toNanos(WebstoneConfig.CREDENTIAL_CACHE_DURATION.get()));
+
+            while (verifiedCredentials.size() > maxSize) {
+                verifiedCredentials.remove(verifiedCredentials.keySet().iterator().next());
+            }
+        }
+
+        return true;
+    }
+
+    public static void clear() {
+        synchronized (verifiedCredentials) {
+            verifiedCredentials.clear();
+        }
+    }
+
+    private static String getKey(String passphrase, String hash) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(passphrase.getBytes(StandardCharsets.UTF_8));
+
+            return hash + ":" + HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException ex) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(ex);
+        }
+    }
+}
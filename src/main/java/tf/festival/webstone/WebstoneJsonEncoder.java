@@ -0,0 +1,279 @@
+package tf.festival.webstone;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+// Writes the JSON of block and group updates straight into a reusable UTF-8 buffer, so fanning out updates
+// doesn't allocate wrappers, writers or strings. Other messages are still serialized using Gson.
+// The scratch buffer is confined to the encoding thread. Encoded messages are handed out as exact-size copies, as sent
+// payloads may still be queued when the next message is encoded, and permessage-deflate compresses the whole backing array.
+class WebstoneJsonEncoder {
+    private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    private static final int MAX_POOLED_CAPACITY = 1 << 20;
+
+    private static final ThreadLocal<WebstoneJsonEncoder> ENCODERS = ThreadLocal.withInitial(WebstoneJsonEncoder::new);
+
+    private byte[] buffer = new byte[1024];
+    private int position;
+
+    public static ByteBuffer encode(SocketMessageType type, Object payload) {
+        if (!(payload instanceof BlockEventMessage || payload instanceof BlockGroupEventMessage || payload instanceof BlockUpdatesMessage)) {
+            return ByteBuffer.wrap(SocketMessage.serialize(type, payload).getBytes(StandardCharsets.UTF_8));
+        }
+
+        WebstoneJsonEncoder encoder = ENCODERS.get();
+        encoder.reset();
+
+        encoder.writeRaw("{\"type\":\"");
+        encoder.writeRaw(type.name());
+        encoder.writeRaw("\",\"payload\":");
+
+        if (payload instanceof BlockEventMessage message) {
+            encoder.writeBlockEvent(message);
+        } else if (payload instanceof BlockGroupEventMessage message) {
+            encoder.writeBlockGroupEvent(message);
+        } else {
+            encoder.writeBlockUpdates((BlockUpdatesMessage) payload);
+        }
+
+        encoder.writeByte('}');
+
+        return ByteBuffer.wrap(Arrays.copyOf(encoder.buffer, encoder.position));
+    }
+
+    private void reset() {
+        // Don't hold on to buffers grown by an unusually large message
+        if (buffer.length > MAX_POOLED_CAPACITY) {
+            buffer = new byte[1024];
+        }
+
+        position = 0;
+    }
+
+    // region Messages
+    // Field order and omitted null fields match the Gson output of the same messages. Unlike Gson, HTML characters
+    // in strings aren't escaped, so the JSON is equivalent but not byte-identical.
+    private void writeBlockEvent(BlockEventMessage message) {
+        writeByte('{');
+        boolean first = true;
+
+        if (message.blockId != null) {
+            first = writeName("blockId", first);
+            writeUUID(message.blockId);
+        }
+
+        if (message.name != null) {
+            first = writeName("name", first);
+            writeString(message.name);
+        }
+
+        writeName("powered", first);
+        writeRaw(message.powered ? "true" : "false");
+
+        writeName("power", false);
+        writeInt(message.power);
+
+        if (message.groupId != null) {
+            writeName("groupId", false);
+            writeString(message.groupId);
+        }
+
+        if (message.keepLoaded) {
+            writeName("keepLoaded", false);
+            writeRaw("true");
+        }
+
+        writeByte('}');
+    }
+
+    private void writeBlockGroupEvent(BlockGroupEventMessage message) {
+        writeByte('{');
+        boolean first = true;
+
+        if (message.groupId != null) {
+            first = writeName("groupId", first);
+            writeUUID(message.groupId);
+        }
+
+        if (message.name != null) {
+            first = writeName("name", first);
+            writeString(message.name);
+        }
+
+        if (message.blockIds != null) {
+            writeName("blockIds", first);
+            writeByte('[');
+
+            for (int i = 0; i < message.blockIds.size(); i++) {
+                if (i > 0) writeByte(',');
+                writeUUID(message.blockIds.get(i));
+            }
+
+            writeByte(']');
+        }
+
+        writeByte('}');
+    }
+
+    private void writeBlockUpdates(BlockUpdatesMessage message) {
+        writeByte('{');
+        boolean first = true;
+
+        if (message.registryId != null) {
+            first = writeName("registryId", first);
+            writeUUID(message.registryId);
+        }
+
+        writeName("blocks", first);
+        writeByte('[');
+        List<BlockEventMessage> blocks = message.blocks;
+        for (int i = 0; i < blocks.size(); i++) {
+            if (i > 0) writeByte(',');
+            writeBlockEvent(blocks.get(i));
+        }
+        writeByte(']');
+
+        writeName("blockGroups", false);
+        writeByte('[');
+        List<BlockGroupEventMessage> blockGroups = message.blockGroups;
+        for (int i = 0; i < blockGroups.size(); i++) {
+            if (i > 0) writeByte(',');
+            writeBlockGroupEvent(blockGroups.get(i));
+        }
+        writeByte(']');
+
+        writeByte('}');
+    }
+    // endregion
+
+    // region Primitives
+    private boolean writeName(String name, boolean first) {
+        if (!first) writeByte(',');
+
+        writeByte('"');
+        writeRaw(name);
+        writeRaw("\":");
+
+        return false;
+    }
+
+    private void writeByte(int value) {
+        ensureCapacity(1);
+        buffer[position++] = (byte) value;
+    }
+
+    // Only used for ASCII names and literals
+    private void writeRaw(String value) {
+        ensureCapacity(value.length());
+
+        for (int i = 0; i < value.length(); i++) {
+            buffer[position++] = (byte) value.charAt(i);
+        }
+    }
+
+    private void writeInt(int value) {
+        if (value == Integer.MIN_VALUE) {
+            writeRaw("-2147483648");
+            return;
+        }
+
+        ensureCapacity(11);
+
+        if (value < 0) {
+            buffer[position++] = '-';
+            value = -value;
+        }
+
+        int start = position;
+        do {
+            buffer[position++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+
+        // Digits were written in reverse
+        for (int i = start, j = position - 1; i < j; i++, j--) {
+            byte digit = buffer[i];
+            buffer[i] = buffer[j];
+            buffer[j] = digit;
+        }
+    }
+
+    // Formats the UUID as 8-4-4-4-12 hex digits without going through UUID#toString
+    private void writeUUID(UUID value) {
+        ensureCapacity(38);
+
+        buffer[position++] = '"';
+        writeHex(value.getMostSignificantBits() >>> 32, 8);
+        buffer[position++] = '-';
+        writeHex(value.getMostSignificantBits() >>> 16, 4);
+        buffer[position++] = '-';
+        writeHex(value.getMostSignificantBits(), 4);
+        buffer[position++] = '-';
+        writeHex(value.getLeastSignificantBits() >>> 48, 4);
+        buffer[position++] = '-';
+        writeHex(value.getLeastSignificantBits(), 12);
+        buffer[position++] = '"';
+    }
+
+    private void writeHex(long value, int digits) {
+        for (int i = digits - 1; i >= 0; i--) {
+            buffer[position + i] = HEX_DIGITS[(int) (value & 0xF)];
+            value >>>= 4;
+        }
+
+        position += digits;
+    }
+
+    private void writeString(String value) {
+        // Every char takes at most 6 bytes (\\uXXXX), surrogate pairs take 4 bytes for 2 chars
+        ensureCapacity(value.length() * 6 + 2);
+        buffer[position++] = '"';
+
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+
+            if (c == '"' || c == '\\') {
+                buffer[position++] = '\\';
+                buffer[position++] = (byte) c;
+            } else if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+                buffer[position++] = '\\';
+                buffer[position++] = 'u';
+                writeHex(c, 4);
+            } else if (c < 0x80) {
+                buffer[position++] = (byte) c;
+            } else if (c < 0x800) {
+                buffer[position++] = (byte) (0xC0 | (c >> 6));
+                buffer[position++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+
+                buffer[position++] = (byte) (0xF0 | (codePoint >> 18));
+                buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                buffer[position++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                // Unpaired surrogates can't be encoded as UTF-8
+                buffer[position++] = '?';
+            } else {
+                buffer[position++] = (byte) (0xE0 | (c >> 12));
+                buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buffer[position++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+
+        buffer[position++] = '"';
+    }
+
+    private void ensureCapacity(int length) {
+        if (buffer.length - position >= length) return;
+
+        byte[] newBuffer = new byte[Math.max(buffer.length * 2, position + length)];
+        System.arraycopy(buffer, 0, newBuffer, 0, position);
+
+        buffer = newBuffer;
+    }
+    // endregion
+}
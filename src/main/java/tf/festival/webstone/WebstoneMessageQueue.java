@@ -0,0 +1,102 @@
+package tf.festival.webstone;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+// Client messages are queued by the WebSocket threads and applied on the server thread at the end of every tick,
+// in the order they were received. Messages not processed within the tick budget are carried over to the next tick.
+class WebstoneMessageQueue {
+    private static class QueuedMessage {
+        final WebstoneSocketSession session;
+        final SocketMessage<?> message;
+        final long enqueueTime = System.nanoTime();
+
+        QueuedMessage(WebstoneSocketSession session, SocketMessage<?> message) {
+            this.session = session;
+            this.message = message;
+        }
+    }
+
+    private final Queue<QueuedMessage> queue = new ConcurrentLinkedQueue<>();
+    // ConcurrentLinkedQueue#size is O(n), so the depth is tracked separately
+    private final AtomicInteger queueDepth = new AtomicInteger();
+
+    // Metrics are only written by the server thread
+    private volatile long processedCount;
+    private volatile int lastProcessedCount;
+    private volatile int lastCarriedOverCount;
+    private volatile long lastProcessingTime;
+    private volatile long lastAverageWaitTime;
+    private volatile long maxWaitTime;
+
+    public void enqueue(WebstoneSocketSession session, SocketMessage<?> message) {
+        queue.add(new QueuedMessage(session, message));
+        queueDepth.incrementAndGet();
+    }
+
+    // At least one message is processed every tick, so a budget smaller than a single message can't stall the queue
+    public void process(BiConsumer<WebstoneSocketSession, SocketMessage<?>> handler, long budget) {
+        long startTime = System.nanoTime();
+        long totalWaitTime = 0;
+        int processed = 0;
+
+        QueuedMessage queuedMessage;
+        while ((processed == 0 || System.nanoTime() - startTime < budget) && (queuedMessage = queue.poll()) != null) {
+            queueDepth.decrementAndGet();
+
+            long waitTime = startTime - queuedMessage.enqueueTime;
+            totalWaitTime += Math.max(waitTime, 0);
+            maxWaitTime = Math.max(maxWaitTime, waitTime);
+
+            // Messages of clients disconnected in the meantime are dropped
+            if (queuedMessage.session.getSocket().isOpen()) {
+                handler.accept(queuedMessage.session, queuedMessage.message);
+            }
+
+            processed++;
+        }
+
+        processedCount += processed;
+        lastProcessedCount = processed;
+        lastCarriedOverCount = queueDepth.get();
+        lastProcessingTime = System.nanoTime() - startTime;
+        lastAverageWaitTime = processed > 0 ? totalWaitTime / processed : 0;
+    }
+
+    public void clear() {
+        queue.clear();
+        queueDepth.set(0);
+    }
+
+    // region Metrics
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    public long getProcessedCount() {
+        return processedCount;
+    }
+
+    public int getLastProcessedCount() {
+        return lastProcessedCount;
+    }
+
+    public int getLastCarriedOverCount() {
+        return lastCarriedOverCount;
+    }
+
+    public long getLastProcessingTime() {
+        return lastProcessingTime;
+    }
+
+    public long getLastAverageWaitTime() {
+        return lastAverageWaitTime;
+    }
+
+    public long getMaxWaitTime() {
+        return maxWaitTime;
+    }
+    // endregion
+}
@@ -1,17 +1,23 @@
 package tf.festival.webstone;
 
 import at.favre.lib.crypto.bcrypt.BCrypt;
+import net.minecraft.core.BlockPos;
 import net.minecraft.network.chat.Component;
+import net.minecraft.resources.ResourceLocation;
 import net.minecraft.world.entity.player.Player;
 import org.jetbrains.annotations.NotNull;
-import tf.festival.webstone.blockentity.WebstoneRemoteBlockEntity;
 import tf.festival.webstone.data.WebstoneBlock;
 import tf.festival.webstone.data.WebstoneBlockGroup;
+import tf.festival.webstone.data.WebstoneBlockStore;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class WebstoneRegistry {
     public enum WebstoneRegistryContext {
@@ -19,26 +25,49 @@ public class WebstoneRegistry {
         PLAYER
     }
 
+    // Declared before the registries, as it's used when creating them
+    private static final AtomicLong modificationCounter = new AtomicLong();
+
     // ZeroUUID = global server context
-    private static final Map<UUID, WebstoneRegistry> perUserRegistry = new HashMap<>(Map.ofEntries(
+    // Concurrent, as subscriptions look up registries on the WebSocket and authentication threads
+    private static final Map<UUID, WebstoneRegistry> perUserRegistry = new ConcurrentHashMap<>(Map.ofEntries(
         Map.entry(new UUID(0, 0), new WebstoneRegistry(new UUID(0, 0)))
     ));
 
     private static final Map<UUID, WebstoneRegistryContext> userRegistryContext = new HashMap<>();
 
+    // Global indexes over the blocks and groups of all registries, maintained by the add/remove methods below
+    private record IndexEntry<T>(WebstoneRegistry registry, T value) {
+    }
+
+    // Blocks are views into the block store of their registry, so only the registry is indexed
+    private static final Map<UUID, WebstoneRegistry> blockIndex = new ConcurrentHashMap<>();
+    private static final Map<UUID, IndexEntry<WebstoneBlockGroup>> blockGroupIndex = new ConcurrentHashMap<>();
+
     private final UUID registryId;
     private final ArrayList<WebstoneBlockGroup> blockGroups = new ArrayList<>();
-    private final ArrayList<WebstoneBlock> blocks = new ArrayList<>();
+    private final WebstoneBlockStore blocks;
+
+    // Incremented whenever blocks or groups are added, removed or reordered
+    private volatile long version;
+    // Bumped on every change of the registry, its blocks or groups, used to invalidate snapshots.
+    // Taken from a global counter, so a registry replaced on world load never reuses the count of its predecessor.
+    private volatile long modificationCount = modificationCounter.incrementAndGet();
+
+    // Last published state, for reads off the server thread
+    private volatile WebstoneRegistrySnapshot snapshot;
 
     // Bcrypt hash of auto-generated or user-set passphrase, or null if server registry (uses config passphrase)
     private String passphraseHash;
 
     public WebstoneRegistry(UUID registryId) {
         this.registryId = registryId;
+        this.blocks = new WebstoneBlockStore(registryId);
+        this.snapshot = createSnapshot();
     }
 
     // region
-    public static boolean registerBlock(UUID blockId, WebstoneRemoteBlockEntity blockEntity, Player player, boolean powered, int power) {
+    public static boolean registerBlock(UUID blockId, Player player, ResourceLocation dimension, BlockPos position, boolean powered, int power) {
         if (!containsBlockInAnyRegistry(blockId)) {
             if (getUserRegistryContext(player.getUUID()) == WebstoneRegistryContext.PLAYER &&
                 getRegistry(player.getUUID()) == null) {
@@ -50,16 +79,16 @@ public class WebstoneRegistry {
             }
 
             WebstoneBlock block = new WebstoneBlock(blockId, "Example", powered, power);
-            block.setBlockEntity(blockEntity);
+            block.setLocation(dimension, position);
 
             switch (WebstoneRegistry.getUserRegistryContext(player.getUUID())) {
                 case SERVER -> {
                     WebstoneRegistry.getServerRegistry().addBlock(block);
-                    Webstone.SOCKET_SERVER.broadcastBlockList(new UUID(0, 0));
+                    Webstone.SOCKET_SERVER.broadcastBlockAdded(block);
                 }
                 case PLAYER -> {
                     WebstoneRegistry.getRegistry(player.getUUID()).addBlock(block);
-                    Webstone.SOCKET_SERVER.broadcastBlockList(WebstoneRegistry.getRegistry(player.getUUID()).registryId);
+                    Webstone.SOCKET_SERVER.broadcastBlockAdded(block);
                 }
                 default -> {
                     return false;
@@ -92,11 +121,28 @@ public class WebstoneRegistry {
                 registry.removeBlock(block);
 
                 Webstone.WORLD_DATA.setDirty();
-                Webstone.SOCKET_SERVER.broadcastBlockList(registry.registryId);
+                Webstone.SOCKET_SERVER.broadcastBlockRemoved(registry, blockId);
             }
         }
     }
 
+    // Records where the block entity of a registered block was loaded, which fills in the location of blocks
+    // registered before locations were recorded
+    public static void updateBlockLocation(UUID blockId, ResourceLocation dimension, BlockPos position) {
+        WebstoneBlock block = getBlockInAnyRegistry(blockId);
+        if (block == null) return;
+
+        ResourceLocation previousDimension = block.getDimension();
+        BlockPos previousPosition = block.getPosition();
+
+        if (block.setLocation(dimension, position)) {
+            if (previousDimension != null) WebstoneSpatialIndex.remove(previousDimension, previousPosition, blockId);
+            WebstoneSpatialIndex.add(dimension, position, blockId);
+
+            Webstone.WORLD_DATA.setDirty();
+        }
+    }
+
     public static boolean setBlockState(UUID blockId, boolean powered) {
         WebstoneRegistry registry = getRegistryForBlock(blockId);
 
@@ -124,12 +170,36 @@ public class WebstoneRegistry {
     public static void clear() {
         perUserRegistry.clear();
         userRegistryContext.clear();
+        blockIndex.clear();
+        blockGroupIndex.clear();
+        WebstoneSpatialIndex.clear();
+        WebstoneBlockJournal.clear();
+        WebstoneRegistryDirectory.clear();
     }
 
     public static Map<UUID, WebstoneRegistry> getAllRegistries() {
         return perUserRegistry;
     }
 
+    // Replaces a registry with the same id, removing its blocks and groups from the indexes
+    public static void addRegistry(WebstoneRegistry registry) {
+        WebstoneRegistry previous = perUserRegistry.put(registry.getRegistryId(), registry);
+        WebstoneRegistryDirectory.invalidate();
+
+        if (previous != null && previous != registry) {
+            for (WebstoneBlock block : previous.blocks.getBlocks()) {
+                // Blocks taken over by the new registry stay indexed
+                if (blockIndex.remove(block.getBlockId(), previous) && block.getDimension() != null) {
+                    WebstoneSpatialIndex.remove(block.getDimension(), block.getPosition(), block.getBlockId());
+                }
+            }
+
+            for (WebstoneBlockGroup blockGroup : previous.blockGroups) {
+                blockGroupIndex.remove(blockGroup.getGroupId(), new IndexEntry<>(previous, blockGroup));
+            }
+        }
+    }
+
     public static WebstoneRegistry getServerRegistry() {
         return perUserRegistry.get(new UUID(0, 0));
     }
@@ -137,6 +207,7 @@ public class WebstoneRegistry {
     public static WebstoneRegistry getOrCreateRegistry(UUID playerId) {
         if (!perUserRegistry.containsKey(playerId)) {
             perUserRegistry.put(playerId, new WebstoneRegistry(playerId));
+            WebstoneRegistryDirectory.invalidate();
 
             Webstone.WORLD_DATA.setDirty();
         }
@@ -167,24 +238,77 @@ public class WebstoneRegistry {
     }
 
     public static WebstoneRegistry getRegistryForBlock(UUID blockId) {
-        for (WebstoneRegistry registry : perUserRegistry.values()) {
-            if (registry.getBlockById(blockId) != null) return registry;
-        }
+        if (blockId == null) return null;
 
-        return null;
+        return blockIndex.get(blockId);
     }
 
     public static WebstoneRegistry getRegistryForBlockGroup(UUID blockGroupId) {
-        for (WebstoneRegistry registry : perUserRegistry.values()) {
-            if (registry.getBlockGroupById(blockGroupId) != null) return registry;
-        }
+        if (blockGroupId == null) return null;
+
+        IndexEntry<WebstoneBlockGroup> entry = blockGroupIndex.get(blockGroupId);
+        return entry != null ? entry.registry() : null;
+    }
 
-        return null;
+    public static WebstoneBlock getBlockInAnyRegistry(UUID blockId) {
+        WebstoneRegistry registry = getRegistryForBlock(blockId);
+        return registry != null ? registry.getBlockById(blockId) : null;
     }
 
     public static boolean containsBlockInAnyRegistry(UUID blockId) {
         return getRegistryForBlock(blockId) != null;
     }
+
+    // Verifies the indexes against the block and group lists of all registries, returns a description of every mismatch
+    public static List<String> checkConsistency() {
+        List<String> errors = new ArrayList<>();
+        int blockCount = 0;
+        int locatedBlockCount = 0;
+        int blockGroupCount = 0;
+
+        for (WebstoneRegistry registry : perUserRegistry.values()) {
+            for (WebstoneBlock block : registry.blocks.getBlocks()) {
+                if (blockIndex.get(block.getBlockId()) != registry) {
+                    errors.add(String.format("Block %s of registry %s is not indexed", block.getBlockId(), registry.getRegistryId()));
+                }
+
+                if (block.getDimension() != null) {
+                    if (!WebstoneSpatialIndex.contains(block.getDimension(), block.getPosition(), block.getBlockId())) {
+                        errors.add(String.format("Block %s of registry %s is not indexed at its position", block.getBlockId(), registry.getRegistryId()));
+                    }
+
+                    locatedBlockCount++;
+                }
+
+                blockCount++;
+            }
+
+            for (WebstoneBlockGroup blockGroup : registry.blockGroups) {
+                IndexEntry<WebstoneBlockGroup> entry = blockGroupIndex.get(blockGroup.getGroupId());
+
+                if (entry == null || entry.registry() != registry || entry.value() != blockGroup) {
+                    errors.add(String.format("Group %s of registry %s is not indexed", blockGroup.getGroupId(), registry.getRegistryId()));
+                }
+
+                blockGroupCount++;
+            }
+        }
+
+        // Every list entry was found above, so additional index entries are stale
+        if (blockIndex.size() != blockCount) {
+            errors.add(String.format("Block index holds %d entries for %d blocks", blockIndex.size(), blockCount));
+        }
+
+        if (WebstoneSpatialIndex.size() != locatedBlockCount) {
+            errors.add(String.format("Spatial index holds %d entries for %d blocks", WebstoneSpatialIndex.size(), locatedBlockCount));
+        }
+
+        if (blockGroupIndex.size() != blockGroupCount) {
+            errors.add(String.format("Group index holds %d entries for %d groups", blockGroupIndex.size(), blockGroupCount));
+        }
+
+        return errors;
+    }
     // endregion
 
     // region
@@ -193,19 +317,50 @@ public class WebstoneRegistry {
     }
 
     public String getName() {
-        if (registryId.equals(new UUID(0, 0))) {
-            return "Public Blocks";
-        }
+        return WebstoneRegistryDirectory.getName(registryId);
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public long getModificationCount() {
+        return modificationCount;
+    }
 
-        if (Webstone.SERVER.getProfileCache().get(registryId).isPresent()) {
-            return Webstone.SERVER.getProfileCache().get(registryId).get().getName();
+    // May lag behind the registry, snapshots are only published when the server thread needs one, so changing a block
+    // (e.g. by a redstone clock) doesn't copy the whole registry every tick
+    public WebstoneRegistrySnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    // Must only be called on the server thread, returns the up-to-date snapshot
+    public WebstoneRegistrySnapshot publishSnapshot() {
+        WebstoneRegistrySnapshot current = snapshot;
+
+        if (current.getModificationCount() != modificationCount) {
+            current = createSnapshot();
+            snapshot = current;
         }
 
-        return "Unknown Block List";
+        return current;
     }
 
-    public ArrayList<WebstoneBlock> getBlocks() {
-        return blocks;
+    private WebstoneRegistrySnapshot createSnapshot() {
+        return new WebstoneRegistrySnapshot(registryId, version, modificationCount, blocks.snapshot(), blockGroups);
+    }
+
+    public void markModified() {
+        modificationCount = modificationCounter.incrementAndGet();
+    }
+
+    public static void markModified(UUID registryId) {
+        WebstoneRegistry registry = getRegistry(registryId);
+        if (registry != null) registry.markModified();
+    }
+
+    public List<WebstoneBlock> getBlocks() {
+        return blocks.getBlocks();
     }
 
     public void addBlocks(ArrayList<WebstoneBlock> blocks) {
@@ -215,25 +370,80 @@ public class WebstoneRegistry {
     }
 
     public WebstoneBlock getBlockById(UUID blockId) {
-        return blocks.stream().filter(block -> blockId.equals(block.getBlockId())).findFirst().orElse(null);
+        if (blockId == null) return null;
+
+        return blocks.get(blockId);
     }
 
     public void addBlock(WebstoneBlock block) {
-        block.setRegistryId(registryId);
-        blocks.add(block);
+        if (!blocks.add(block)) return;
+        blockIndex.put(block.getBlockId(), this);
+
+        if (block.getDimension() != null) {
+            WebstoneSpatialIndex.add(block.getDimension(), block.getPosition(), block.getBlockId());
+        }
+
+        version++;
+        markModified();
     }
 
     public void removeBlock(WebstoneBlock block) {
-        block.setRegistryId(null);
-        blocks.remove(block);
+        if (blocks.remove(block)) {
+            blockIndex.remove(block.getBlockId(), this);
+            WebstoneBlockJournal.forget(block.getBlockId());
+
+            // The block was detached with its values, so its location is still known
+            if (block.getDimension() != null) {
+                WebstoneSpatialIndex.remove(block.getDimension(), block.getPosition(), block.getBlockId());
+            }
+
+            version++;
+            markModified();
+        }
     }
 
-    public ArrayList<WebstoneBlockGroup> getBlockGroups() {
-        return blockGroups;
+    public List<WebstoneBlockGroup> getBlockGroups() {
+        return Collections.unmodifiableList(blockGroups);
     }
 
     public WebstoneBlockGroup getBlockGroupById(UUID groupId) {
-        return blockGroups.stream().filter(group -> groupId.equals(group.getGroupId())).findFirst().orElse(null);
+        if (groupId == null) return null;
+
+        IndexEntry<WebstoneBlockGroup> entry = blockGroupIndex.get(groupId);
+        return entry != null && entry.registry() == this ? entry.value() : null;
+    }
+
+    public void addBlockGroup(WebstoneBlockGroup blockGroup) {
+        blockGroup.setRegistryId(registryId);
+        blockGroups.add(blockGroup);
+        blockGroupIndex.put(blockGroup.getGroupId(), new IndexEntry<>(this, blockGroup));
+
+        version++;
+        markModified();
+    }
+
+    public boolean removeBlockGroup(WebstoneBlockGroup blockGroup) {
+        if (blockGroups.remove(blockGroup)) {
+            blockGroup.setRegistryId(null);
+            blockGroupIndex.remove(blockGroup.getGroupId(), new IndexEntry<>(this, blockGroup));
+
+            version++;
+            markModified();
+
+            return true;
+        }
+
+        return false;
+    }
+
+    public boolean moveBlockGroup(WebstoneBlockGroup blockGroup, int index) {
+        if (!blockGroups.remove(blockGroup)) return false;
+
+        blockGroups.add(Math.min(Math.max(index, 0), blockGroups.size()), blockGroup);
+        version++;
+        markModified();
+
+        return true;
     }
 
     public String getPassphrase() {
@@ -253,7 +463,7 @@ public class WebstoneRegistry {
     public boolean comparePassphrase(@NotNull String passphrase) {
         if (passphraseHash == null || passphraseHash.isEmpty()) return true;
 
-        return BCrypt.verifyer().verify(passphrase.toCharArray(), passphraseHash).verified;
+        return WebstoneCredentialCache.verify(passphrase, passphraseHash);
     }
     // endregion
 }
\ No newline at end of file
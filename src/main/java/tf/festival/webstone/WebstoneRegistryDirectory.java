@@ -0,0 +1,146 @@
+package tf.festival.webstone;
+
+import com.mojang.authlib.GameProfile;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Display names of all registries, sorted for paging and prefix searches. Names are resolved from the profile cache once
+// and refreshed when their player logs in, so listing registries never touches the profile cache of the server.
+class WebstoneRegistryDirectory {
+    record Entry(UUID registryId, String name, String sortKey) {
+    }
+
+    record Page(List<Entry> entries, int offset, int total) {
+    }
+
+    private static final Comparator<Entry> ORDER = Comparator.comparing(Entry::sortKey).thenComparing(Entry::registryId);
+
+    private record SortedEntries(long generation, Entry[] entries) {
+    }
+
+    private static final Map<UUID, String> names = new ConcurrentHashMap<>();
+    // Rebuilt on the next read after registries were added or renamed. Entries are tagged with the generation they
+    // were built for, so a rebuild racing with an invalidation can't pass off outdated entries as current.
+    private static final AtomicLong generation = new AtomicLong();
+    private static volatile SortedEntries sortedEntries;
+
+    public static String getName(UUID registryId) {
+        return names.computeIfAbsent(registryId, WebstoneRegistryDirectory::resolveName);
+    }
+
+    // Called when a player logs in, so renamed players show up with their new name
+    public static void updateName(GameProfile profile) {
+        if (WebstoneRegistry.getRegistry(profile.getId()) == null) return;
+
+        String previous = names.put(profile.getId(), profile.getName());
+
+        if (!profile.getName().equals(previous)) {
+            invalidate();
+        }
+    }
+
+    public static void invalidate() {
+        generation.incrementAndGet();
+    }
+
+    public static void clear() {
+        names.clear();
+        invalidate();
+    }
+
+    public static List<Entry> getEntries() {
+        return Arrays.asList(getSortedEntries());
+    }
+
+    // Registries whose name starts with the prefix (ignoring case), in alphabetical order
+    public static Page find(String prefix, int offset, int limit) {
+        Entry[] entries = getSortedEntries();
+        String key = prefix != null ? prefix.toLowerCase(Locale.ROOT) : "";
+
+        int start = lowerBound(entries, key);
+        int end = upperBound(entries, key, start);
+
+        int from = Math.min(start + Math.max(offset, 0), end);
+        int to = Math.min(from + Math.max(limit, 0), end);
+
+        return new Page(Arrays.asList(entries).subList(from, to), from - start, end - start);
+    }
+
+    private static synchronized Entry[] getSortedEntries() {
+        // Read before the registries, any invalidation from here on leaves the rebuilt entries outdated
+        long currentGeneration = generation.get();
+
+        SortedEntries sorted = sortedEntries;
+        if (sorted != null && sorted.generation() == currentGeneration) return sorted.entries();
+
+        ArrayList<Entry> list = new ArrayList<>();
+        for (UUID registryId : WebstoneRegistry.getAllRegistries().keySet()) {
+            String name = getName(registryId);
+            list.add(new Entry(registryId, name, name.toLowerCase(Locale.ROOT)));
+        }
+
+        Entry[] entries = list.toArray(new Entry[0]);
+        Arrays.sort(entries, ORDER);
+
+        sortedEntries = new SortedEntries(currentGeneration, entries);
+        return entries;
+    }
+
+    // First entry not sorted before the prefix
+    private static int lowerBound(Entry[] entries, String key) {
+        int low = 0;
+        int high = entries.length;
+
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+
+            if (entries[middle].sortKey().compareTo(key) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        return low;
+    }
+
+    // First entry after the start not starting with the prefix, all entries between them do
+    private static int upperBound(Entry[] entries, String key, int start) {
+        int low = start;
+        int high = entries.length;
+
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+
+            if (entries[middle].sortKey().startsWith(key)) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        return low;
+    }
+
+    private static String resolveName(UUID registryId) {
+        if (registryId.equals(new UUID(0, 0))) {
+            return "Public Blocks";
+        }
+
+        if (Webstone.SERVER != null) {
+            Optional<GameProfile> profile = Webstone.SERVER.getProfileCache().get(registryId);
+            if (profile.isPresent()) return profile.get().getName();
+        }
+
+        return "Unknown Block List";
+    }
+}
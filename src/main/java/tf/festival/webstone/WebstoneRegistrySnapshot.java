@@ -0,0 +1,55 @@
+package tf.festival.webstone;
+
+import tf.festival.webstone.data.WebstoneBlockGroup;
+import tf.festival.webstone.data.WebstoneBlockGroupSnapshot;
+import tf.festival.webstone.data.WebstoneBlockSnapshot;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+// Immutable state of a registry. Registries are only changed on the server thread, which publishes a new snapshot
+// when one is needed after changes, so other threads can read and serialize blocks and groups without locking.
+public class WebstoneRegistrySnapshot {
+    private final UUID registryId;
+    private final long version;
+    private final long modificationCount;
+    private final List<WebstoneBlockSnapshot> blocks;
+    private final List<WebstoneBlockGroupSnapshot> blockGroups;
+
+    WebstoneRegistrySnapshot(UUID registryId, long version, long modificationCount, List<WebstoneBlockSnapshot> blocks, List<WebstoneBlockGroup> blockGroups) {
+        this.registryId = registryId;
+        this.version = version;
+        this.modificationCount = modificationCount;
+        this.blocks = Collections.unmodifiableList(blocks);
+
+        ArrayList<WebstoneBlockGroupSnapshot> blockGroupSnapshots = new ArrayList<>(blockGroups.size());
+        for (WebstoneBlockGroup blockGroup : blockGroups) {
+            blockGroupSnapshots.add(blockGroup.snapshot());
+        }
+
+        this.blockGroups = Collections.unmodifiableList(blockGroupSnapshots);
+    }
+
+    public UUID getRegistryId() {
+        return registryId;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    // Modification count of the registry at the time the snapshot was taken
+    public long getModificationCount() {
+        return modificationCount;
+    }
+
+    public List<WebstoneBlockSnapshot> getBlocks() {
+        return blocks;
+    }
+
+    public List<WebstoneBlockGroupSnapshot> getBlockGroups() {
+        return blockGroups;
+    }
+}
@@ -0,0 +1,59 @@
+package tf.festival.webstone;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Keeps the encoded BLOCKS and BLOCK_GROUPS messages of every registry, so subscribing clients share a single encoding.
+// Entries are tagged with the modification count of the registry snapshot they were encoded from, and lazily
+// re-encoded once a newer snapshot is requested.
+class WebstoneSnapshotCache {
+    private record Key(UUID registryId, SocketMessageType type, SocketEncoding encoding) {
+    }
+
+    private record CachedMessage(long modificationCount, ByteBuffer message) {
+    }
+
+    private final ConcurrentHashMap<Key, CachedMessage> cache = new ConcurrentHashMap<>();
+
+    // Returns a duplicate of its own, which can be consumed by the caller. Cached messages are plain array-backed
+    // buffers of their exact size, as permessage-deflate compresses the whole backing array of a payload.
+    public ByteBuffer get(WebstoneRegistrySnapshot snapshot, SocketMessageType type, SocketEncoding encoding) {
+        Key key = new Key(snapshot.getRegistryId(), type, encoding);
+        CachedMessage cached = cache.get(key);
+
+        if (cached == null || cached.modificationCount() != snapshot.getModificationCount()) {
+            // Concurrent callers wait for the first one to encode the message instead of encoding it themselves.
+            // Entries are only replaced by newer snapshots, callers with an outdated one just encode it for themselves.
+            cached = cache.compute(key, (k, previous) -> {
+                if (previous != null && previous.modificationCount() >= snapshot.getModificationCount()) return previous;
+                return new CachedMessage(snapshot.getModificationCount(), encode(snapshot, type, encoding));
+            });
+
+            if (cached.modificationCount() != snapshot.getModificationCount()) {
+                return encode(snapshot, type, encoding);
+            }
+        }
+
+        return cached.message().duplicate();
+    }
+
+    public void clear() {
+        cache.clear();
+    }
+
+    private static ByteBuffer encode(WebstoneRegistrySnapshot snapshot, SocketMessageType type, SocketEncoding encoding) {
+        Object payload = type == SocketMessageType.BLOCKS ? new BlocksMessage(snapshot) : new BlockGroupsMessage(snapshot);
+
+        ByteBuffer encoded = encoding == SocketEncoding.BINARY
+            ? WebstoneBinaryCodec.encode(type, payload)
+            : WebstoneJsonEncoder.encode(type, payload);
+
+        // Encoders may hand out pooled buffers, the cached message needs its own copy
+        ByteBuffer message = ByteBuffer.allocate(encoded.remaining());
+        message.put(encoded);
+        message.flip();
+
+        return message;
+    }
+}
@@ -1,11 +1,22 @@
 package tf.festival.webstone;
 
-import at.favre.lib.crypto.bcrypt.BCrypt;
+import net.minecraft.resources.ResourceLocation;
 import net.minecraftforge.fml.loading.FMLPaths;
 import org.java_websocket.WebSocket;
+import org.java_websocket.drafts.Draft;
+import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.extensions.IExtension;
+import org.java_websocket.extensions.permessage_deflate.PerMessageDeflateExtension;
+import org.java_websocket.exceptions.WebsocketNotConnectedException;
+import org.java_websocket.framing.BinaryFrame;
+import org.java_websocket.framing.CloseFrame;
+import org.java_websocket.framing.DataFrame;
+import org.java_websocket.framing.TextFrame;
 import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.protocols.Protocol;
 import org.java_websocket.server.DefaultSSLWebSocketServerFactory;
 import org.java_websocket.server.WebSocketServer;
+import tf.festival.webstone.WebstoneSocketSession.AuthenticationState;
 import tf.festival.webstone.data.WebstoneBlock;
 import tf.festival.webstone.data.WebstoneBlockGroup;
 
@@ -19,6 +30,7 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 import java.nio.file.Paths;
 import java.security.KeyFactory;
 import java.security.KeyStore;
@@ -31,42 +43,50 @@ import java.security.interfaces.RSAPrivateKey;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.PKCS8EncodedKeySpec;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
 public class WebstoneSocketServer extends WebSocketServer {
-    enum AuthenticationState {
-        NONE, AUTHENTICATED, SUBSCRIBED
+    private final ConcurrentHashMap<UUID, WebstoneSocketSession> sessions = new ConcurrentHashMap<>();
+    private final WebstoneSubscriptionIndex subscriptionIndex = new WebstoneSubscriptionIndex();
+    private final WebstoneUpdateBatcher updateBatcher = new WebstoneUpdateBatcher();
+    private final WebstoneMessageQueue messageQueue = new WebstoneMessageQueue();
+    private final WebstoneSnapshotCache snapshotCache = new WebstoneSnapshotCache();
+    private final WebstoneTimeoutScheduler timeoutScheduler = new WebstoneTimeoutScheduler(WebstoneConfig.TIMEOUT_TICK_RESOLUTION.get(), TimeUnit.MILLISECONDS);
+    private final ThreadPoolExecutor authenticationExecutor;
+    private volatile int congestedSessionCount;
+
+    private static WebstoneSocketSession getSession(WebSocket ws) {
+        return ws.getAttachment();
     }
 
-    private final HashMap<UUID, WebSocket> socketClients = new HashMap<>();
-    private final HashMap<UUID, Timer> socketClientTimers = new HashMap<>();
-    private final HashMap<UUID, ArrayList<UUID>> registryClients = new HashMap<>();
-
     public UUID getSocketId(WebSocket ws) {
-        for (Map.Entry<UUID, WebSocket> entry : socketClients.entrySet()) {
-            if (entry.getValue() == ws) {
-                return entry.getKey();
-            }
-        }
+        WebstoneSocketSession session = getSession(ws);
 
-        return null;
+        if (session == null) return null;
+        return session.getSocketId();
     }
 
-    private UUID getRegistryIdForSocket(WebSocket ws) {
-        UUID socketId = getSocketId(ws);
-
-        if (socketId == null) return null;
+    public WebstoneSocketServer(int port) throws UnknownHostException {
+        super(new InetSocketAddress(port), getDrafts());
 
-        for (Map.Entry<UUID, ArrayList<UUID>> entry : registryClients.entrySet()) {
-            if (entry.getValue().contains(socketId)) {
-                return entry.getKey();
-            }
-        }
+        int authenticationWorkers = WebstoneConfig.AUTHENTICATION_WORKERS.get();
+        AtomicInteger authenticationWorkerCount = new AtomicInteger();
 
-        return null;
-    }
+        authenticationExecutor = new ThreadPoolExecutor(authenticationWorkers, authenticationWorkers, 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(WebstoneConfig.AUTHENTICATION_QUEUE_SIZE.get()),
+            runnable -> {
+                Thread thread = new Thread(runnable, "Webstone Authentication #" + authenticationWorkerCount.incrementAndGet());
+                thread.setDaemon(true);
 
-    public WebstoneSocketServer(int port) throws UnknownHostException {
-        super(new InetSocketAddress(port));
+                return thread;
+            });
+        authenticationExecutor.allowCoreThreadTimeOut(true);
 
         if (WebstoneConfig.SECURE_WEBSOCKET.get()) {
             SSLContext context = getContext();
@@ -77,46 +97,82 @@ public class WebstoneSocketServer extends WebSocketServer {
         }
     }
 
+    // Clients asking for the binary subprotocol are sent binary frames, every other client (including ones
+    // that don't ask for a subprotocol at all) keeps using JSON text frames.
+    private static List<Draft> getDrafts() {
+        List<IExtension> extensions = new ArrayList<>();
+
+        // Clients not offering permessage-deflate fall back to the default (uncompressed) extension.
+        // The extension compresses the whole backing array of a payload, so every sent payload must be an
+        // array-backed buffer of its exact size (see WebstoneJsonEncoder, WebstoneBinaryCodec and WebstoneSnapshotCache).
+        if (WebstoneConfig.WEBSOCKET_COMPRESSION.get()) {
+            PerMessageDeflateExtension deflateExtension = new PerMessageDeflateExtension();
+            deflateExtension.setThreshold(WebstoneConfig.COMPRESSION_THRESHOLD.get());
+
+            extensions.add(deflateExtension);
+        }
+
+        return List.of(new Draft_6455(extensions, List.of(new Protocol(WebstoneBinaryCodec.PROTOCOL), new Protocol(""))));
+    }
+
     @Override
     public void onStart() {
         Webstone.LOGGER.info(String.format("Webstone WebSocket server started on port %d. (Secure: %b)", this.getPort(), WebstoneConfig.SECURE_WEBSOCKET.get()));
         setConnectionLostTimeout(0);
         setConnectionLostTimeout(100);
+
+        timeoutScheduler.start();
+    }
+
+    @Override
+    public void stop(int timeout, String closeMessage) throws InterruptedException {
+        timeoutScheduler.stop();
+        authenticationExecutor.shutdownNow();
+        messageQueue.clear();
+        snapshotCache.clear();
+
+        super.stop(timeout, closeMessage);
+    }
+
+    WebstoneTimeoutScheduler getTimeoutScheduler() {
+        return timeoutScheduler;
     }
 
     @Override
     public void onOpen(WebSocket ws, ClientHandshake handshake) {
         Webstone.LOGGER.info(String.format("New connection from %s", ws.getRemoteSocketAddress().getAddress().getHostAddress()));
-        ws.setAttachment(AuthenticationState.NONE);
 
         UUID socketId = UUID.randomUUID();
-        socketClients.put(socketId, ws);
+        WebstoneSocketSession session = new WebstoneSocketSession(socketId, ws);
 
-        WelcomeMessage welcomeMessage = new WelcomeMessage(socketId);
+        if (ws.getDraft() instanceof Draft_6455 draft && draft.getProtocol() != null
+            && WebstoneBinaryCodec.PROTOCOL.equals(draft.getProtocol().getProvidedProtocol())) {
+            session.setEncoding(SocketEncoding.BINARY);
+        }
 
-        Timer disconnectTimer = new Timer();
-        disconnectTimer.schedule(new TimerTask() {
-            @Override
-            public void run() {
-                ws.close();
-            }
-        }, Date.from(welcomeMessage.expireTime));
+        ws.setAttachment(session);
+        sessions.put(socketId, session);
+
+        WelcomeMessage welcomeMessage = new WelcomeMessage(socketId);
 
-        socketClientTimers.put(socketId, disconnectTimer);
+        session.setDisconnectTimeout(timeoutScheduler.schedule(ws::close, WebstoneConfig.AUTHENTICATION_TIMEOUT.get(), TimeUnit.SECONDS));
 
-        ws.send(SocketMessage.serialize(SocketMessageType.WELCOME, welcomeMessage));
+        send(session, SocketMessageType.WELCOME, welcomeMessage);
     }
 
     @Override
     public void onClose(WebSocket ws, int code, String reason, boolean remote) {
         Webstone.LOGGER.info(String.format("Connection closed from %s", ws.getRemoteSocketAddress().getAddress().getHostAddress()));
 
-        for (ArrayList<UUID> clients : registryClients.values()) {
-            clients.remove(getSocketId(ws));
+        WebstoneSocketSession session = getSession(ws);
+        if (session == null) return;
+
+        for (UUID registryId : session.getRegistryIds()) {
+            subscriptionIndex.unsubscribe(registryId, session);
         }
 
-        socketClientTimers.remove(getSocketId(ws));
-        socketClients.remove(getSocketId(ws));
+        session.cancelDisconnectTimeout();
+        sessions.remove(session.getSocketId());
     }
 
     @Override
@@ -124,34 +180,44 @@ public class WebstoneSocketServer extends WebSocketServer {
         // Webstone.LOGGER.info(message);
 
         try {
-            SocketMessage<?> messageObj = SocketMessage.deserialize(message);
-
-            if (!isAuthenticated(ws)
-                && messageObj.type == SocketMessageType.AUTH_REQ
-                && handleAuthentication(ws, (AuthenticationRequestMessage) messageObj.payload)) {
-                if ((Object) socketClientTimers.get(getSocketId(ws)) instanceof Timer timer) {
-                    timer.purge();
-                    timer.cancel();
-
-                    socketClientTimers.remove(getSocketId(ws));
-                    // Webstone.LOGGER.info("disconnect timer cancelled");
-                }
+            dispatchMessage(getSession(ws), SocketMessage.deserialize(message));
+        } catch (Exception ex) {
+            handleMessageError(ws, ex);
+        }
+    }
 
-                ws.send(SocketMessage.serialize(SocketMessageType.BLOCK_LISTS, new BlockListMessage()));
-            } else if (!isSubscribed(ws)
-                && messageObj.type == SocketMessageType.SUBSCRIBE) {
-                handleSubscription(ws, (SubscriptionMessage) messageObj.payload);
-            } else {
-                handleMessage(ws, messageObj);
-            }
+    @Override
+    public void onMessage(WebSocket ws, ByteBuffer message) {
+        try {
+            dispatchMessage(getSession(ws), WebstoneBinaryCodec.decode(message));
         } catch (Exception ex) {
-            Webstone.LOGGER.error(ex.getMessage(), (Object[]) ex.getStackTrace());
+            handleMessageError(ws, ex);
+        }
+    }
 
-            ws.send(SocketMessage.serialize(SocketMessageType.SERVER_ERROR, new ServerErrorMessage(ex)));
-            ws.close();
+    private void dispatchMessage(WebstoneSocketSession session, SocketMessage<?> messageObj) {
+        if (!session.isAuthenticated()
+            && messageObj.type == SocketMessageType.AUTH_REQ) {
+            handleAuthentication(session, (AuthenticationRequestMessage) messageObj.payload);
+        } else if (!session.isSubscribed()
+            && messageObj.type == SocketMessageType.SUBSCRIBE) {
+            handleSubscription(session, (SubscriptionMessage) messageObj.payload);
+        } else if (messageObj.type == SocketMessageType.BLOCK_LISTS) {
+            // Only reads the registry directory, so it's answered right away
+            handleBlockListRequest(session, (BlockListRequestMessage) messageObj.payload);
+        } else {
+            // Everything touching registries is applied on the server thread, see processMessages
+            messageQueue.enqueue(session, messageObj);
         }
     }
 
+    private void handleMessageError(WebSocket ws, Exception ex) {
+        Webstone.LOGGER.error(ex.getMessage(), (Object[]) ex.getStackTrace());
+
+        send(getSession(ws), SocketMessageType.SERVER_ERROR, new ServerErrorMessage(ex));
+        ws.close();
+    }
+
     @Override
     public void onError(WebSocket ws, Exception ex) {
         Webstone.LOGGER.error(ex.getMessage(), (Object[]) ex.getStackTrace());
@@ -163,107 +229,484 @@ public class WebstoneSocketServer extends WebSocketServer {
     }
 
     public void broadcastBlockGroupList(UUID registryId) {
-        if (!registryClients.containsKey(registryId)) return;
-
         WebstoneRegistry registry = WebstoneRegistry.getRegistry(registryId);
         if (registry == null) return;
 
-        for (UUID socketId : registryClients.get(registryId)) {
-            if (!socketClients.containsKey(socketId)) continue;
-
-            socketClients.get(socketId).send(SocketMessage.serialize(SocketMessageType.BLOCK_GROUPS, new BlockGroupsMessage(registry.getBlockGroups())));
-        }
+        broadcastSnapshot(registry, SocketMessageType.BLOCK_GROUPS);
     }
 
     public void broadcastBlockList(UUID registryId) {
-        if (!registryClients.containsKey(registryId)) return;
-
         WebstoneRegistry registry = WebstoneRegistry.getRegistry(registryId);
         if (registry == null) return;
 
-        for (UUID socketId : registryClients.get(registryId)) {
-            if (!socketClients.containsKey(socketId)) continue;
+        broadcastSnapshot(registry, SocketMessageType.BLOCKS);
+    }
+
+    public void broadcastBlockAdded(WebstoneBlock block) {
+        WebstoneRegistry registry = WebstoneRegistry.getRegistry(block.getRegistryId());
+        if (registry == null) return;
 
-            socketClients.get(socketId).send(SocketMessage.serialize(SocketMessageType.BLOCKS, new BlocksMessage(registry.getBlocks())));
-        }
+        RegistryPatchMessage patch = new RegistryPatchMessage(registry);
+        patch.block = new BlockEventMessage(block);
+
+        broadcastPatch(registry, SocketMessageType.BLOCK_ADDED, patch, SocketMessageType.BLOCKS);
+    }
+
+    public void broadcastBlockRemoved(WebstoneRegistry registry, UUID blockId) {
+        RegistryPatchMessage patch = new RegistryPatchMessage(registry);
+        patch.id = blockId;
+
+        broadcastPatch(registry, SocketMessageType.BLOCK_REMOVED, patch, SocketMessageType.BLOCKS);
+    }
+
+    public void broadcastBlockGroupAdded(WebstoneRegistry registry, WebstoneBlockGroup blockGroup) {
+        RegistryPatchMessage patch = new RegistryPatchMessage(registry);
+        patch.blockGroup = new BlockGroupEventMessage(blockGroup);
+        patch.index = registry.getBlockGroups().indexOf(blockGroup);
+
+        broadcastPatch(registry, SocketMessageType.BLOCK_GROUP_ADDED, patch, SocketMessageType.BLOCK_GROUPS);
+    }
+
+    public void broadcastBlockGroupRemoved(WebstoneRegistry registry, UUID groupId) {
+        RegistryPatchMessage patch = new RegistryPatchMessage(registry);
+        patch.id = groupId;
+
+        broadcastPatch(registry, SocketMessageType.BLOCK_GROUP_REMOVED, patch, SocketMessageType.BLOCK_GROUPS);
+    }
+
+    public void broadcastBlockGroupMoved(WebstoneRegistry registry, WebstoneBlockGroup blockGroup) {
+        RegistryPatchMessage patch = new RegistryPatchMessage(registry);
+        patch.id = blockGroup.getGroupId();
+        patch.index = registry.getBlockGroups().indexOf(blockGroup);
+
+        broadcastPatch(registry, SocketMessageType.BLOCK_GROUP_MOVED, patch, SocketMessageType.BLOCK_GROUPS);
     }
 
     public void broadcastBlockUpdated(WebstoneBlock block) {
         WebstoneRegistry registry = WebstoneRegistry.getRegistry(block.getRegistryId());
+        if (registry == null || !subscriptionIndex.hasSubscribers(registry.getRegistryId())) return;
+
+        updateBatcher.addBlock(registry.getRegistryId(), block);
+    }
 
-        if (registry == null || !registryClients.containsKey(registry.getRegistryId())) return;
+    public void broadcastBlockGroupUpdated(WebstoneBlockGroup blockGroup) {
+        WebstoneRegistry registry = WebstoneRegistry.getRegistryForBlockGroup(blockGroup.getGroupId());
+        if (registry == null || !subscriptionIndex.hasSubscribers(registry.getRegistryId())) return;
+
+        updateBatcher.addBlockGroup(registry.getRegistryId(), blockGroup);
+    }
 
-        for (UUID socketId : registryClients.get(registry.getRegistryId())) {
-            if (!socketClients.containsKey(socketId)) continue;
+    // Called at the end of every server tick, before flushUpdates
+    public void processMessages() {
+        messageQueue.process((session, messageObj) -> {
+            try {
+                handleMessage(session, messageObj);
+            } catch (Exception ex) {
+                handleMessageError(session.getSocket(), ex);
+            }
+        }, WebstoneConfig.MESSAGE_TICK_BUDGET.get());
+    }
+
+    WebstoneMessageQueue getMessageQueue() {
+        return messageQueue;
+    }
 
-            socketClients.get(socketId).send(SocketMessage.serialize(SocketMessageType.BLOCK_UPDATE, new BlockEventMessage(block)));
+    // Called at the end of every server tick
+    public void flushUpdates() {
+        checkSlowConsumers();
+
+        for (Map.Entry<UUID, WebstoneUpdateBatcher.PendingUpdates> entry : updateBatcher.drain().entrySet()) {
+            WebstoneRegistry registry = WebstoneRegistry.getRegistry(entry.getKey());
+            WebstoneSubscriptionIndex.Subscribers subscribers = subscriptionIndex.getSubscribers(entry.getKey());
+
+            if (registry == null || subscribers.isEmpty()) continue;
+
+            BlockUpdatesMessage message = createUpdatesMessage(registry, entry.getValue());
+            if (message == null) continue;
+
+            WebstoneSubscriptionIndex.Clients batchedClients = subscribers.getClients(SocketCapability.BATCHED_UPDATES);
+            WebstoneSubscriptionIndex.Clients clients = subscribers.getClientsWithout(SocketCapability.BATCHED_UPDATES);
+
+            // Slow consumers get the updates once they caught up instead
+            if (congestedSessionCount > 0) {
+                for (WebstoneSocketSession session : subscribers.getSessions()) {
+                    if (session.isCongested() && !session.isResyncRequired()) {
+                        session.getDeferredUpdates().addAll(registry.getRegistryId(), entry.getValue());
+                    }
+                }
+
+                batchedClients = batchedClients.filter(session -> !session.isCongested());
+                clients = clients.filter(session -> !session.isCongested());
+            }
+
+            if (!batchedClients.isEmpty()) {
+                broadcast(SocketMessageType.BLOCK_UPDATES, message, batchedClients);
+            }
+
+            // Clients without BATCHED_UPDATES still receive one message per block or group, but only its latest state
+            if (!clients.isEmpty()) {
+                for (BlockEventMessage blockMessage : message.blocks) {
+                    broadcast(SocketMessageType.BLOCK_UPDATE, blockMessage, clients);
+                }
+
+                for (BlockGroupEventMessage blockGroupMessage : message.blockGroups) {
+                    broadcast(SocketMessageType.BLOCK_GROUP_UPDATE, blockGroupMessage, clients);
+                }
+            }
         }
     }
 
-    public void broadcastBlockGroupUpdated(WebstoneBlockGroup blockGroup) {
-        WebstoneRegistry registry = WebstoneRegistry.getRegistryForBlockGroup(blockGroup.getGroupId());
-        if (registry == null || !registryClients.containsKey(registry.getRegistryId())) return;
+    private static BlockUpdatesMessage createUpdatesMessage(WebstoneRegistry registry, WebstoneUpdateBatcher.PendingUpdates updates) {
+        BlockUpdatesMessage message = new BlockUpdatesMessage(registry.getRegistryId());
 
-        for (UUID socketId : registryClients.get(registry.getRegistryId())) {
-            if (!socketClients.containsKey(socketId)) continue;
+        for (WebstoneBlock block : updates.blocks.values()) {
+            // Blocks unregistered after their update was queued are covered by the BLOCKS list instead
+            if (registry.getRegistryId().equals(block.getRegistryId())) {
+                message.blocks.add(new BlockEventMessage(block));
+            }
+        }
 
-            socketClients.get(socketId).send(SocketMessage.serialize(SocketMessageType.BLOCK_GROUP_UPDATE, new BlockGroupEventMessage(blockGroup)));
+        for (WebstoneBlockGroup blockGroup : updates.blockGroups.values()) {
+            if (registry.getBlockGroupById(blockGroup.getGroupId()) == blockGroup) {
+                message.blockGroups.add(new BlockGroupEventMessage(blockGroup));
+            }
         }
+
+        if (message.blocks.isEmpty() && message.blockGroups.isEmpty()) return null;
+        return message;
     }
 
-    // region Authentication
-    private boolean isAuthenticated(WebSocket ws) {
-        return ws.<AuthenticationState>getAttachment().ordinal() >= AuthenticationState.AUTHENTICATED.ordinal();
+    private static void sendUpdates(WebstoneSocketSession session, BlockUpdatesMessage message) {
+        if (session.hasCapability(SocketCapability.BATCHED_UPDATES)) {
+            send(session, SocketMessageType.BLOCK_UPDATES, message);
+            return;
+        }
+
+        for (BlockEventMessage blockMessage : message.blocks) {
+            send(session, SocketMessageType.BLOCK_UPDATE, blockMessage);
+        }
+
+        for (BlockGroupEventMessage blockGroupMessage : message.blockGroups) {
+            send(session, SocketMessageType.BLOCK_GROUP_UPDATE, blockGroupMessage);
+        }
     }
 
-    private boolean isSubscribed(WebSocket ws) {
-        return ws.<AuthenticationState>getAttachment().ordinal() >= AuthenticationState.SUBSCRIBED.ordinal();
+    // region Slow Consumers
+    // Clients are marked as congested once more than OutboundQueueLimit bytes are waiting to be sent to them,
+    // and recover once their queue drained to half of that.
+    private void checkSlowConsumers() {
+        long queueLimit = WebstoneConfig.OUTBOUND_QUEUE_LIMIT.get();
+        WebstoneConfig.SlowConsumerPolicy policy = WebstoneConfig.SLOW_CONSUMER_POLICY.get();
+        int congestedCount = 0;
+
+        for (WebstoneSocketSession session : sessions.values()) {
+            long queuedBytes = session.getQueuedBytes();
+
+            if (!session.isCongested()) {
+                if (queuedBytes <= queueLimit) {
+                    // Resyncs are also requested by subscriptions that may have missed changes
+                    if (session.isResyncRequired()) recoverSession(session);
+                    continue;
+                }
+
+                Webstone.LOGGER.warn(String.format("Client %s has %d bytes queued, applying slow consumer policy %s", session.getSocketId(), queuedBytes, policy));
+
+                if (policy == WebstoneConfig.SlowConsumerPolicy.DISCONNECT) {
+                    session.getSocket().close(CloseFrame.POLICY_VALIDATION, "Outbound queue limit exceeded");
+                    continue;
+                }
+
+                session.setCongested(true);
+
+                if (policy == WebstoneConfig.SlowConsumerPolicy.RESYNC) {
+                    session.requireResync();
+                }
+
+                congestedCount++;
+            } else if (queuedBytes <= queueLimit / 2) {
+                session.setCongested(false);
+                recoverSession(session);
+            } else {
+                congestedCount++;
+            }
+        }
+
+        congestedSessionCount = congestedCount;
     }
 
-    private boolean handleAuthentication(WebSocket ws, AuthenticationRequestMessage message) {
-        if (WebstoneConfig.PASSPHRASE.get().isEmpty()) {
-            ws.setAttachment(AuthenticationState.AUTHENTICATED);
-            ws.send(SocketMessage.serialize(SocketMessageType.AUTH_RES, new AuthenticationResponseMessage(true, "Authentication successful")));
+    private void recoverSession(WebstoneSocketSession session) {
+        if (session.consumeResync()) {
+            session.getDeferredUpdates().clear();
+
+            for (UUID registryId : session.getRegistryIds()) {
+                WebstoneRegistry registry = WebstoneRegistry.getRegistry(registryId);
+                if (registry != null) sendSnapshot(session, registry.publishSnapshot());
+            }
 
-            return true;
+            return;
         }
 
-        if (message != null && BCrypt.verifyer().verify(message.passphrase.toCharArray(), WebstoneConfig.PASSPHRASE.get()).verified) {
-            ws.setAttachment(AuthenticationState.AUTHENTICATED);
-            ws.send(SocketMessage.serialize(SocketMessageType.AUTH_RES, new AuthenticationResponseMessage(true, "Authentication successful")));
+        for (Map.Entry<UUID, WebstoneUpdateBatcher.PendingUpdates> entry : session.getDeferredUpdates().drain().entrySet()) {
+            WebstoneRegistry registry = WebstoneRegistry.getRegistry(entry.getKey());
+            if (registry == null || !session.getRegistryIds().contains(registry.getRegistryId())) continue;
 
-            return true;
+            BlockUpdatesMessage message = createUpdatesMessage(registry, entry.getValue());
+            if (message != null) sendUpdates(session, message);
+        }
+    }
+
+    Collection<WebstoneSocketSession> getSessions() {
+        return Collections.unmodifiableCollection(sessions.values());
+    }
+    // endregion
+
+    private void broadcastPatch(WebstoneRegistry registry, SocketMessageType type, RegistryPatchMessage patch, SocketMessageType fallbackType) {
+        WebstoneSubscriptionIndex.Subscribers subscribers = subscriptionIndex.getSubscribers(registry.getRegistryId());
+        if (subscribers.isEmpty()) return;
+
+        WebstoneSubscriptionIndex.Clients patchClients = subscribers.getClients(SocketCapability.REGISTRY_PATCHES);
+        WebstoneSubscriptionIndex.Clients clients = subscribers.getClientsWithout(SocketCapability.REGISTRY_PATCHES);
+
+        if (!patchClients.isEmpty()) {
+            broadcast(type, patch, patchClients);
+        }
+
+        // Clients without REGISTRY_PATCHES get the full list affected by the change
+        if (!clients.isEmpty()) {
+            broadcastSnapshot(registry, fallbackType, clients);
+        }
+    }
+
+    private void broadcastSnapshot(WebstoneRegistry registry, SocketMessageType type) {
+        WebstoneSubscriptionIndex.Subscribers subscribers = subscriptionIndex.getSubscribers(registry.getRegistryId());
+        if (subscribers.isEmpty()) return;
+
+        broadcastSnapshot(registry, type, subscribers.getClients());
+    }
+
+    // The message is encoded at most once per encoding, every subscriber is then sent the same encoded bytes.
+    private void broadcast(SocketMessageType type, Object payload, WebstoneSubscriptionIndex.Clients clients) {
+        broadcast(clients, encoding -> encoding == SocketEncoding.BINARY
+            ? WebstoneBinaryCodec.encode(type, payload)
+            : WebstoneJsonEncoder.encode(type, payload));
+    }
+
+    // Full lists are taken from the snapshot cache, so they are only encoded again after the registry changed
+    private void broadcastSnapshot(WebstoneRegistry registry, SocketMessageType type, WebstoneSubscriptionIndex.Clients clients) {
+        WebstoneRegistrySnapshot snapshot = registry.publishSnapshot();
+        broadcast(clients, encoding -> snapshotCache.get(snapshot, type, encoding));
+    }
+
+    private void broadcast(WebstoneSubscriptionIndex.Clients clients, Function<SocketEncoding, ByteBuffer> encoder) {
+        // Slow consumers missing a message other than a block or group update need the full lists once they caught up
+        if (congestedSessionCount > 0) {
+            clients = clients.filter(session -> {
+                if (!session.isCongested()) return true;
+
+                session.requireResync();
+                return false;
+            });
+        }
+
+        if (!clients.jsonClients.isEmpty()) {
+            ByteBuffer message = encoder.apply(SocketEncoding.JSON);
+
+            for (WebSocket ws : clients.jsonClients) {
+                sendText(ws, message.duplicate());
+            }
+        }
+
+        if (!clients.binaryClients.isEmpty()) {
+            ByteBuffer message = encoder.apply(SocketEncoding.BINARY);
+
+            for (WebSocket ws : clients.binaryClients) {
+                sendBinary(ws, message.duplicate());
+            }
+        }
+    }
+
+    private static void send(WebstoneSocketSession session, SocketMessageType type, Object payload) {
+        if (session.getEncoding() == SocketEncoding.BINARY) {
+            sendBinary(session.getSocket(), WebstoneBinaryCodec.encode(type, payload));
+        } else {
+            sendText(session.getSocket(), WebstoneJsonEncoder.encode(type, payload));
+        }
+    }
+
+    // Sends already UTF-8 encoded JSON as a text frame. Every socket needs its own frame, as extensions
+    // like permessage-deflate replace the payload of the frame while sending.
+    private static void sendText(WebSocket ws, ByteBuffer message) {
+        TextFrame frame = new TextFrame();
+        frame.setPayload(message);
+        sendFrame(ws, frame);
+    }
+
+    // Binary messages need their own frame per socket for the same reason, so they don't go through WebSocketServer#broadcast,
+    // which shares the frames of a message between all sockets using the same draft.
+    private static void sendBinary(WebSocket ws, ByteBuffer message) {
+        BinaryFrame frame = new BinaryFrame();
+        frame.setPayload(message);
+        sendFrame(ws, frame);
+    }
+
+    private static void sendFrame(WebSocket ws, DataFrame frame) {
+        frame.setFin(true);
+
+        try {
+            ws.sendFrame(frame);
+        } catch (WebsocketNotConnectedException ex) {
+            // Closed in the meantime, like WebSocketServer#broadcast we don't care
+        }
+    }
+
+    // region Authentication
+    // Passphrases are verified on the authentication workers, so bcrypt never blocks the WebSocket threads
+    private void handleAuthentication(WebstoneSocketSession session, AuthenticationRequestMessage message) {
+        if (!session.beginAuthentication()) return;
+
+        if (message != null) {
+            session.setCapabilities(message.capabilities);
+        }
+
+        String passphraseHash = WebstoneConfig.PASSPHRASE.get();
+
+        if (passphraseHash.isEmpty()) {
+            completeAuthentication(session, true);
+        } else if (message == null || message.passphrase == null) {
+            completeAuthentication(session, false);
         } else {
-            ws.send(SocketMessage.serialize(SocketMessageType.AUTH_RES, new AuthenticationResponseMessage(false, "Invalid server passphrase")));
+            submitAuthenticationTask(session, SocketMessageType.AUTH_RES, () -> completeAuthentication(session, WebstoneCredentialCache.verify(message.passphrase, passphraseHash)));
+        }
+    }
+
+    private void completeAuthentication(WebstoneSocketSession session, boolean verified) {
+        WebSocket ws = session.getSocket();
+        session.endAuthentication();
+
+        if (!ws.isOpen()) return;
+
+        if (verified) {
+            session.setAuthenticationState(AuthenticationState.AUTHENTICATED);
+            session.cancelDisconnectTimeout();
+
+            send(session, SocketMessageType.AUTH_RES, new AuthenticationResponseMessage(true, "Authentication successful"));
+
+            if (!session.hasCapability(SocketCapability.PAGED_BLOCK_LISTS)) {
+                send(session, SocketMessageType.BLOCK_LISTS, new BlockListMessage(WebstoneRegistryDirectory.getEntries()));
+            }
+        } else {
+            send(session, SocketMessageType.AUTH_RES, new AuthenticationResponseMessage(false, "Invalid server passphrase"));
             ws.close();
         }
+    }
+
+    private void handleBlockListRequest(WebstoneSocketSession session, BlockListRequestMessage message) {
+        if (!session.isAuthenticated()) return;
 
-        return false;
+        int maxLimit = WebstoneConfig.MAX_BLOCK_LIST_PAGE_SIZE.get();
+        int limit = message.limit > 0 ? Math.min(message.limit, maxLimit) : maxLimit;
+
+        send(session, SocketMessageType.BLOCK_LISTS, new BlockListMessage(WebstoneRegistryDirectory.find(message.prefix, message.offset, limit)));
     }
 
-    private void handleSubscription(WebSocket ws, SubscriptionMessage message) {
+    private void handleSubscription(WebstoneSocketSession session, SubscriptionMessage message) {
         WebstoneRegistry registry = WebstoneRegistry.getRegistry(message.registryId);
 
-        if (registry == null || !registry.comparePassphrase(message.passphrase)) {
-            ws.send(SocketMessage.serialize(SocketMessageType.SUBSCRIBE, new SubscriptionResponseMessage(false, "Invalid passphrase", null)));
+        if (registry == null) {
+            completeSubscription(session, null);
+        } else if (registry.getPassphrase() == null || registry.getPassphrase().isEmpty()) {
+            completeSubscription(session, registry);
+        } else {
+            String passphrase = message.passphrase != null ? message.passphrase : "";
+            submitAuthenticationTask(session, SocketMessageType.SUBSCRIBE, () -> completeSubscription(session, registry.comparePassphrase(passphrase) ? registry : null));
+        }
+    }
+
+    private void completeSubscription(WebstoneSocketSession session, WebstoneRegistry registry) {
+        WebSocket ws = session.getSocket();
+
+        if (!ws.isOpen()) return;
+
+        if (registry == null) {
+            send(session, SocketMessageType.SUBSCRIBE, new SubscriptionResponseMessage(false, "Invalid passphrase", null));
             return;
         }
 
-        registryClients.computeIfAbsent(registry.getRegistryId(), k -> new ArrayList<>());
+        if (session.addRegistry(registry.getRegistryId())) {
+            subscriptionIndex.subscribe(registry.getRegistryId(), session);
+
+            // The socket may have been closed (and its subscriptions dropped) while the passphrase was verified
+            if (!ws.isOpen()) {
+                subscriptionIndex.unsubscribe(registry.getRegistryId(), session);
+                return;
+            }
+        }
+        session.setAuthenticationState(AuthenticationState.SUBSCRIBED);
+        send(session, SocketMessageType.SUBSCRIBE, new SubscriptionResponseMessage(true, "Authentication successful", registry.getRegistryId()));
+
+        // Runs on an authentication thread, so only an up-to-date published snapshot is sent right away. Otherwise the
+        // lists are requested like a SYNC, so the server thread publishes the snapshot and sends it within the next tick.
+        WebstoneRegistrySnapshot snapshot = registry.getSnapshot();
 
-        registryClients.get(registry.getRegistryId()).add(getSocketId(ws));
-        ws.setAttachment(AuthenticationState.SUBSCRIBED);
-        ws.send(SocketMessage.serialize(SocketMessageType.SUBSCRIBE, new SubscriptionResponseMessage(true, "Authentication successful", registry.getRegistryId())));
+        if (snapshot.getModificationCount() == registry.getModificationCount()) {
+            sendSnapshot(session, snapshot);
+        } else {
+            SyncRequestMessage syncRequest = new SyncRequestMessage();
+            syncRequest.registryId = registry.getRegistryId();
 
-        ws.send(SocketMessage.serialize(SocketMessageType.BLOCKS, new BlocksMessage(registry.getBlocks())));
-        ws.send(SocketMessage.serialize(SocketMessageType.BLOCK_GROUPS, new BlockGroupsMessage(registry.getBlockGroups())));
+            messageQueue.enqueue(session, new SocketMessage<>(SocketMessageType.SYNC, syncRequest));
+        }
 
-        ws.setAttachment(AuthenticationState.AUTHENTICATED);
+        session.setAuthenticationState(AuthenticationState.AUTHENTICATED);
+    }
+
+    private void submitAuthenticationTask(WebstoneSocketSession session, SocketMessageType responseType, Runnable task) {
+        try {
+            authenticationExecutor.execute(() -> {
+                try {
+                    task.run();
+                } catch (Exception ex) {
+                    Webstone.LOGGER.error(ex.getMessage(), (Object[]) ex.getStackTrace());
+
+                    session.endAuthentication();
+                    send(session, SocketMessageType.SERVER_ERROR, new ServerErrorMessage(ex));
+                    session.getSocket().close();
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            session.endAuthentication();
+
+            Object response = responseType == SocketMessageType.AUTH_RES
+                ? new AuthenticationResponseMessage(false, "Server is busy, try again later")
+                : new SubscriptionResponseMessage(false, "Server is busy, try again later", null);
+
+            send(session, responseType, response);
+
+            if (responseType == SocketMessageType.AUTH_RES) {
+                session.getSocket().close(CloseFrame.TRY_AGAIN_LATER);
+            }
+        }
+    }
+
+    // Subscribers of the same registry share the cached encoding of its lists
+    private void sendSnapshot(WebstoneSocketSession session, WebstoneRegistrySnapshot snapshot) {
+        sendSnapshot(session, snapshot, SocketMessageType.BLOCKS);
+        sendSnapshot(session, snapshot, SocketMessageType.BLOCK_GROUPS);
+    }
+
+    private void sendSnapshot(WebstoneSocketSession session, WebstoneRegistrySnapshot snapshot, SocketMessageType type) {
+        ByteBuffer message = snapshotCache.get(snapshot, type, session.getEncoding());
+
+        if (session.getEncoding() == SocketEncoding.BINARY) {
+            sendBinary(session.getSocket(), message);
+        } else {
+            sendText(session.getSocket(), message);
+        }
     }
     // endregion
 
     // region Web Socket Handlers
-    private void handleMessage(WebSocket ws, SocketMessage<?> messageObj) {
+    private void handleMessage(WebstoneSocketSession session, SocketMessage<?> messageObj) {
         switch (messageObj.type) {
             case UNSUBSCRIBE -> {
                 UnsubscriptionMessage message = (UnsubscriptionMessage) messageObj.payload;
@@ -273,14 +716,44 @@ public class WebstoneSocketServer extends WebSocketServer {
                     return;
                 }
 
-                ArrayList<UUID> registryClientList = registryClients.get(registry.getRegistryId());
-                if (registryClientList != null && registryClientList.contains(getSocketId(ws))) {
-                    registryClientList.remove(getSocketId(ws));
+                if (session.removeRegistry(registry.getRegistryId())) {
+                    subscriptionIndex.unsubscribe(registry.getRegistryId(), session);
+
+                    send(session, SocketMessageType.UNSUBSCRIBE, new UnsubscriptionMessage(registry.getRegistryId()));
+                }
+            }
+            case BATCH -> {
+                // Applied as a whole within the current tick, the resulting updates are coalesced by flushUpdates
+                for (SocketMessage<?> message : ((BatchMessage) messageObj.payload).messages) {
+                    handleMessage(session, message);
+                }
+            }
+            case SYNC -> {
+                SyncRequestMessage message = (SyncRequestMessage) messageObj.payload;
+                WebstoneRegistry registry = WebstoneRegistry.getRegistry(message.registryId);
+
+                if (registry != null && session.getRegistryIds().contains(registry.getRegistryId())) {
+                    sendSnapshot(session, registry.publishSnapshot());
+                }
+            }
+            case QUERY_AREA -> {
+                AreaRequestMessage message = (AreaRequestMessage) messageObj.payload;
+                ResourceLocation dimension = message.dimension != null ? ResourceLocation.tryParse(message.dimension) : null;
+                AreaMessage response = new AreaMessage(message);
+
+                if (dimension != null) {
+                    for (WebstoneSpatialIndex.Entry entry : WebstoneSpatialIndex.getBlocksInArea(dimension, message.minX, message.minZ, message.maxX, message.maxZ)) {
+                        WebstoneRegistry registry = WebstoneRegistry.getRegistryForBlock(entry.blockId());
 
-                    ws.send(SocketMessage.serialize(SocketMessageType.UNSUBSCRIBE, new UnsubscriptionMessage(registry.getRegistryId())));
+                        if (registry != null && session.getRegistryIds().contains(registry.getRegistryId())) {
+                            response.blocks.add(registry.getBlockById(entry.blockId()).snapshot());
+                        }
+                    }
                 }
+
+                send(session, SocketMessageType.QUERY_AREA, response);
             }
-            case BLOCK_STATE, BLOCK_POWER, RENAME_BLOCK, UNREGISTER_BLOCK, CHANGE_BLOCK_GROUP -> {
+            case BLOCK_STATE, BLOCK_POWER, RENAME_BLOCK, UNREGISTER_BLOCK, CHANGE_BLOCK_GROUP, KEEP_LOADED, BLOCK_SET -> {
                 BlockEventMessage message = (BlockEventMessage) messageObj.payload;
                 WebstoneRegistry registry = WebstoneRegistry.getRegistryForBlock(message.blockId);
 
@@ -288,68 +761,69 @@ public class WebstoneSocketServer extends WebSocketServer {
                     WebstoneBlock block = registry.getBlockById(message.blockId);
 
                     if (block != null) {
-                        Webstone.SERVER.execute(() -> {
-                            boolean result = switch (messageObj.type) {
-                                case BLOCK_STATE -> block.setPowered(message.powered);
-                                case BLOCK_POWER -> block.setPower(message.power);
-                                case RENAME_BLOCK -> block.setName(message.name);
-                                case UNREGISTER_BLOCK -> {
-                                    if (block.getGroupId() != null) {
-                                        if ((Object) registry.getBlockGroupById(block.getGroupId()) instanceof WebstoneBlockGroup blockGroup) {
-                                            blockGroup.removeBlock(block);
-                                            broadcastBlockGroupUpdated(blockGroup);
-                                        }
+                        boolean result = switch (messageObj.type) {
+                            case BLOCK_STATE -> block.setPowered(message.powered);
+                            case BLOCK_POWER -> block.setPower(message.power);
+                            // Both values reach the world in the same block update, see WebstoneWriteBuffer
+                            case BLOCK_SET -> block.setPowered(message.powered) | block.setPower(message.power);
+                            case RENAME_BLOCK -> block.setName(message.name);
+                            case KEEP_LOADED -> block.setKeepLoaded(message.keepLoaded);
+                            case UNREGISTER_BLOCK -> {
+                                if (block.getGroupId() != null) {
+                                    if ((Object) registry.getBlockGroupById(block.getGroupId()) instanceof WebstoneBlockGroup blockGroup) {
+                                        blockGroup.removeBlock(block);
+                                        broadcastBlockGroupUpdated(blockGroup);
                                     }
+                                }
 
-                                    registry.removeBlock(block);
+                                registry.removeBlock(block);
 
-                                    Webstone.WORLD_DATA.setDirty();
-                                    broadcastBlockList(registry.getRegistryId());
+                                Webstone.WORLD_DATA.setDirty();
+                                broadcastBlockRemoved(registry, block.getBlockId());
+
+                                yield false;
+                            }
+                            case CHANGE_BLOCK_GROUP -> {
+                                WebstoneBlockGroup blockGroup = null;
+                                UUID groupId = null;
+
+                                try {
+                                    groupId = UUID.fromString(message.groupId);
+                                } catch (Exception e) {
+                                    // groupId is empty = no group specified
+                                }
 
+                                if (groupId == block.getGroupId()) {
                                     yield false;
                                 }
-                                case CHANGE_BLOCK_GROUP -> {
-                                    WebstoneBlockGroup blockGroup = null;
-                                    UUID groupId = null;
-
-                                    try {
-                                        groupId = UUID.fromString(message.groupId);
-                                    } catch (Exception e) {
-                                        // groupId is empty = no group specified
-                                    }
 
-                                    if (groupId == block.getGroupId()) {
-                                        yield false;
-                                    }
+                                if (groupId != null) {
+                                    blockGroup = registry.getBlockGroupById(groupId);
+                                }
 
-                                    if (groupId != null) {
-                                        blockGroup = registry.getBlockGroupById(groupId);
-                                    }
+                                if (block.getGroupId() != null && (Object) registry.getBlockGroupById(block.getGroupId()) instanceof WebstoneBlockGroup _blockGroup) {
+                                    _blockGroup.removeBlock(block);
 
-                                    if (block.getGroupId() != null && (Object) registry.getBlockGroupById(block.getGroupId()) instanceof WebstoneBlockGroup _blockGroup) {
-                                        _blockGroup.removeBlock(block);
+                                    Webstone.WORLD_DATA.setDirty();
+                                    broadcastBlockGroupUpdated(_blockGroup);
+                                }
 
+                                if (blockGroup != null) {
+                                    if (blockGroup.addBlock(block)) {
                                         Webstone.WORLD_DATA.setDirty();
-                                        broadcastBlockGroupUpdated(_blockGroup);
+                                        broadcastBlockGroupUpdated(blockGroup);
                                     }
-
-                                    if (blockGroup != null) {
-                                        if (blockGroup.addBlock(block)) {
-                                            Webstone.WORLD_DATA.setDirty();
-                                            broadcastBlockGroupUpdated(blockGroup);
-                                        }
-                                    }
-
-                                    yield Webstone.WORLD_DATA.isDirty();
                                 }
-                                default -> false;
-                            };
 
-                            if (result) {
-                                Webstone.WORLD_DATA.setDirty();
-                                broadcastBlockUpdated(block);
+                                yield Webstone.WORLD_DATA.isDirty();
                             }
-                        });
+                            default -> false;
+                        };
+
+                        if (result) {
+                            Webstone.WORLD_DATA.setDirty();
+                            broadcastBlockUpdated(block);
+                        }
                     }
                 }
             }
@@ -369,13 +843,14 @@ public class WebstoneSocketServer extends WebSocketServer {
 
                 switch (messageObj.type) {
                     case CREATE_GROUP -> {
-                        registry = WebstoneRegistry.getRegistry(getRegistryIdForSocket(ws));
+                        registry = WebstoneRegistry.getRegistry(session.getRegistryId());
 
                         if (registry != null) {
-                            registry.getBlockGroups().add(new WebstoneBlockGroup(message.name));
+                            WebstoneBlockGroup newBlockGroup = new WebstoneBlockGroup(message.name);
+                            registry.addBlockGroup(newBlockGroup);
 
                             Webstone.WORLD_DATA.setDirty();
-                            broadcastBlockGroupList(registry.getRegistryId());
+                            broadcastBlockGroupAdded(registry, newBlockGroup);
                         }
                     }
                     case RENAME_GROUP -> {
@@ -389,16 +864,19 @@ public class WebstoneSocketServer extends WebSocketServer {
 
                     case DELETE_GROUP -> {
                         if (blockGroup != null) {
-                            for (UUID blockId : new ArrayList<>(blockGroup.getBlockIds())) {
-                                blockGroup.removeBlock(registry.getBlockById(blockId));
+                            // Iterates the immutable snapshot of the group, so removing blocks doesn't affect the loop
+                            for (UUID blockId : blockGroup.getBlockIds()) {
+                                WebstoneBlock block = registry.getBlockById(blockId);
+
+                                if (blockGroup.removeBlock(block)) {
+                                    broadcastBlockUpdated(block);
+                                }
                             }
 
-                            registry.getBlockGroups().remove(blockGroup);
+                            registry.removeBlockGroup(blockGroup);
 
                             Webstone.WORLD_DATA.setDirty();
-
-                            broadcastBlockGroupList(registry.getRegistryId());
-                            broadcastBlockList(registry.getRegistryId());
+                            broadcastBlockGroupRemoved(registry, blockGroup.getGroupId());
                         }
                     }
                     default -> {}
@@ -429,12 +907,9 @@ public class WebstoneSocketServer extends WebSocketServer {
                 if (registry != null) {
                     WebstoneBlockGroup blockGroup = registry.getBlockGroupById(message.id);
 
-                    if (blockGroup != null) {
-                        registry.getBlockGroups().remove(blockGroup);
-                        registry.getBlockGroups().add(message.newIndex, blockGroup);
-
+                    if (blockGroup != null && registry.moveBlockGroup(blockGroup, message.newIndex)) {
                         Webstone.WORLD_DATA.setDirty();
-                        broadcastBlockGroupList(registry.getRegistryId());
+                        broadcastBlockGroupMoved(registry, blockGroup);
                     }
                 }
             }
@@ -0,0 +1,481 @@
+package tf.festival.webstone;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonSerializer;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import tf.festival.webstone.data.WebstoneBlockSnapshot;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.UUID;
+
+// Hand-written readers for client messages, so incoming frames are decoded in a single streaming pass without reflection.
+// Messages sent in both directions get Gson adapters, request-only messages just a reader, and block snapshots a serializer.
+// Null fields are left out when writing, matching the output of the reflective adapters.
+class WebstoneSocketServerAdapters {
+    interface PayloadReader<T> {
+        T read(JsonReader in) throws IOException;
+    }
+
+    // region Messages
+    public static SocketMessage<?> readMessage(String message) throws IOException {
+        JsonReader reader = new JsonReader(new StringReader(message));
+        reader.setLenient(true);
+
+        return readMessage(reader, false);
+    }
+
+    private static SocketMessage<?> readMessage(JsonReader reader, boolean batched) throws IOException {
+        SocketMessageType type = null;
+        Object payload = null;
+        JsonElement deferredPayload = null;
+
+        reader.beginObject();
+
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "type" -> {
+                    type = readType(reader);
+                    if (batched && type != null) BatchMessage.checkType(type);
+                }
+                case "payload" -> {
+                    if (type != null) {
+                        payload = getPayloadReader(type).read(reader);
+                    } else {
+                        // Clients sending the payload first only lose the streaming benefit
+                        deferredPayload = JsonParser.parseReader(reader);
+                    }
+                }
+                default -> reader.skipValue();
+            }
+        }
+
+        reader.endObject();
+
+        if (type == null) {
+            throw new IllegalArgumentException("Unknown payload type");
+        }
+
+        if (deferredPayload != null) {
+            JsonReader payloadReader = new JsonReader(new StringReader(deferredPayload.toString()));
+            payloadReader.setLenient(true);
+
+            payload = getPayloadReader(type).read(payloadReader);
+        }
+
+        return new SocketMessage<>(type, payload);
+    }
+
+    private static SocketMessageType readType(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+
+        String name = reader.nextString();
+
+        for (SocketMessageType type : SocketMessageType.values()) {
+            if (type.name().equals(name)) return type;
+        }
+
+        return null;
+    }
+
+    private static PayloadReader<?> getPayloadReader(SocketMessageType type) {
+        return switch (type) {
+            // Never sent by clients, the payload is ignored
+            case WELCOME -> WebstoneSocketServerAdapters::skipPayload;
+            case AUTH_REQ -> WebstoneSocketServerAdapters::readAuthenticationRequest;
+            case SUBSCRIBE -> WebstoneSocketServerAdapters::readSubscription;
+            case UNSUBSCRIBE -> UNSUBSCRIPTION::read;
+            case SYNC -> WebstoneSocketServerAdapters::readSyncRequest;
+            case BLOCK_LISTS -> WebstoneSocketServerAdapters::readBlockListRequest;
+            case QUERY_AREA -> WebstoneSocketServerAdapters::readAreaRequest;
+            case BATCH -> WebstoneSocketServerAdapters::readBatch;
+            case BLOCK_STATE, BLOCK_POWER, RENAME_BLOCK, UNREGISTER_BLOCK, CHANGE_BLOCK_GROUP, KEEP_LOADED, BLOCK_SET -> BLOCK_EVENT::read;
+            case CREATE_GROUP, RENAME_GROUP, DELETE_GROUP -> BLOCK_GROUP_EVENT::read;
+            case CHANGE_BLOCK_INDEX, CHANGE_GROUP_INDEX -> CHANGE_INDEX::read;
+            default -> throw new IllegalArgumentException("Unknown payload type");
+        };
+    }
+    // endregion
+
+    // region Requests
+    private static Object skipPayload(JsonReader in) throws IOException {
+        in.skipValue();
+        return null;
+    }
+
+    private static AuthenticationRequestMessage readAuthenticationRequest(JsonReader in) throws IOException {
+        if (skipNull(in)) return null;
+
+        AuthenticationRequestMessage message = new AuthenticationRequestMessage();
+        in.beginObject();
+
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "passphrase" -> message.passphrase = readString(in);
+                case "capabilities" -> message.capabilities = readCapabilities(in);
+                default -> in.skipValue();
+            }
+        }
+
+        in.endObject();
+        return message;
+    }
+
+    private static SubscriptionMessage readSubscription(JsonReader in) throws IOException {
+        if (skipNull(in)) return null;
+
+        SubscriptionMessage message = new SubscriptionMessage();
+        in.beginObject();
+
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "registryId" -> message.registryId = readUUID(in);
+                case "passphrase" -> message.passphrase = readString(in);
+                default -> in.skipValue();
+            }
+        }
+
+        in.endObject();
+        return message;
+    }
+
+    private static SyncRequestMessage readSyncRequest(JsonReader in) throws IOException {
+        if (skipNull(in)) return null;
+
+        SyncRequestMessage message = new SyncRequestMessage();
+        in.beginObject();
+
+        while (in.hasNext()) {
+            if (in.nextName().equals("registryId")) {
+                message.registryId = readUUID(in);
+            } else {
+                in.skipValue();
+            }
+        }
+
+        in.endObject();
+        return message;
+    }
+
+    private static BlockListRequestMessage readBlockListRequest(JsonReader in) throws IOException {
+        BlockListRequestMessage message = new BlockListRequestMessage();
+        if (skipNull(in)) return message;
+
+        in.beginObject();
+
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "prefix" -> message.prefix = readString(in);
+                case "offset" -> message.offset = in.nextInt();
+                case "limit" -> message.limit = in.nextInt();
+                default -> in.skipValue();
+            }
+        }
+
+        in.endObject();
+        return message;
+    }
+
+    private static AreaRequestMessage readAreaRequest(JsonReader in) throws IOException {
+        if (skipNull(in)) return null;
+
+        AreaRequestMessage message = new AreaRequestMessage();
+        in.beginObject();
+
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "dimension" -> message.dimension = readString(in);
+                case "minX" -> message.minX = in.nextInt();
+                case "minZ" -> message.minZ = in.nextInt();
+                case "maxX" -> message.maxX = in.nextInt();
+                case "maxZ" -> message.maxZ = in.nextInt();
+                default -> in.skipValue();
+            }
+        }
+
+        in.endObject();
+        return message;
+    }
+
+    private static BatchMessage readBatch(JsonReader in) throws IOException {
+        BatchMessage message = new BatchMessage();
+        if (skipNull(in)) return message;
+
+        in.beginObject();
+
+        while (in.hasNext()) {
+            if (in.nextName().equals("messages") && in.peek() == JsonToken.BEGIN_ARRAY) {
+                in.beginArray();
+
+                while (in.hasNext()) {
+                    // Checked per entry, as the array length isn't known up front when streaming
+                    BatchMessage.checkSize(message.messages.size() + 1);
+                    message.messages.add(readMessage(in, true));
+                }
+
+                in.endArray();
+            } else {
+                in.skipValue();
+            }
+        }
+
+        in.endObject();
+        return message;
+    }
+    // endregion
+
+    // region Adapters
+    static final TypeAdapter<UnsubscriptionMessage> UNSUBSCRIPTION = new TypeAdapter<>() {
+        @Override
+        public void write(JsonWriter out, UnsubscriptionMessage value) throws IOException {
+            if (value == null) {
+                out.nullValue();
+                return;
+            }
+
+            out.beginObject();
+            writeUUID(out, "registryId", value.registryId);
+            out.endObject();
+        }
+
+        @Override
+        public UnsubscriptionMessage read(JsonReader in) throws IOException {
+            if (skipNull(in)) return null;
+
+            UnsubscriptionMessage message = new UnsubscriptionMessage();
+            in.beginObject();
+
+            while (in.hasNext()) {
+                if (in.nextName().equals("registryId")) {
+                    message.registryId = readUUID(in);
+                } else {
+                    in.skipValue();
+                }
+            }
+
+            in.endObject();
+            return message;
+        }
+    };
+
+    static final TypeAdapter<BlockEventMessage> BLOCK_EVENT = new TypeAdapter<>() {
+        @Override
+        public void write(JsonWriter out, BlockEventMessage value) throws IOException {
+            if (value == null) {
+                out.nullValue();
+                return;
+            }
+
+            out.beginObject();
+            writeUUID(out, "blockId", value.blockId);
+            writeString(out, "name", value.name);
+            out.name("powered").value(value.powered);
+            out.name("power").value(value.power);
+            writeString(out, "groupId", value.groupId);
+            if (value.keepLoaded) out.name("keepLoaded").value(true);
+            out.endObject();
+        }
+
+        @Override
+        public BlockEventMessage read(JsonReader in) throws IOException {
+            if (skipNull(in)) return null;
+
+            BlockEventMessage message = new BlockEventMessage();
+            in.beginObject();
+
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "blockId" -> message.blockId = readUUID(in);
+                    case "name" -> message.name = readString(in);
+                    case "powered" -> message.powered = in.nextBoolean();
+                    case "power" -> message.power = in.nextInt();
+                    case "groupId" -> message.groupId = readString(in);
+                    case "keepLoaded" -> message.keepLoaded = in.nextBoolean();
+                    default -> in.skipValue();
+                }
+            }
+
+            in.endObject();
+            return message;
+        }
+    };
+
+    static final TypeAdapter<BlockGroupEventMessage> BLOCK_GROUP_EVENT = new TypeAdapter<>() {
+        @Override
+        public void write(JsonWriter out, BlockGroupEventMessage value) throws IOException {
+            if (value == null) {
+                out.nullValue();
+                return;
+            }
+
+            out.beginObject();
+            writeUUID(out, "groupId", value.groupId);
+            writeString(out, "name", value.name);
+
+            if (value.blockIds != null) {
+                out.name("blockIds").beginArray();
+
+                for (UUID blockId : value.blockIds) {
+                    out.value(blockId.toString());
+                }
+
+                out.endArray();
+            }
+
+            out.endObject();
+        }
+
+        @Override
+        public BlockGroupEventMessage read(JsonReader in) throws IOException {
+            if (skipNull(in)) return null;
+
+            BlockGroupEventMessage message = new BlockGroupEventMessage();
+            in.beginObject();
+
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "groupId" -> message.groupId = readUUID(in);
+                    case "name" -> message.name = readString(in);
+                    case "blockIds" -> message.blockIds = readUUIDs(in);
+                    default -> in.skipValue();
+                }
+            }
+
+            in.endObject();
+            return message;
+        }
+    };
+
+    static final TypeAdapter<ChangeIndexMessage> CHANGE_INDEX = new TypeAdapter<>() {
+        @Override
+        public void write(JsonWriter out, ChangeIndexMessage value) throws IOException {
+            if (value == null) {
+                out.nullValue();
+                return;
+            }
+
+            out.beginObject();
+            writeUUID(out, "id", value.id);
+            out.name("newIndex").value(value.newIndex);
+            out.endObject();
+        }
+
+        @Override
+        public ChangeIndexMessage read(JsonReader in) throws IOException {
+            if (skipNull(in)) return null;
+
+            ChangeIndexMessage message = new ChangeIndexMessage();
+            in.beginObject();
+
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "id" -> message.id = readUUID(in);
+                    case "newIndex" -> message.newIndex = in.nextInt();
+                    default -> in.skipValue();
+                }
+            }
+
+            in.endObject();
+            return message;
+        }
+    };
+    // endregion
+
+    // region Serializers
+    // Only sent to clients, null snapshots are written as null by Gson before reaching the serializer
+    static final JsonSerializer<WebstoneBlockSnapshot> BLOCK = (value, type, context) -> {
+        JsonObject object = new JsonObject();
+        if (value.blockId() != null) object.addProperty("blockId", value.blockId().toString());
+        if (value.name() != null) object.addProperty("name", value.name());
+        object.addProperty("powered", value.powered());
+        object.addProperty("power", value.power());
+        if (value.registryId() != null) object.addProperty("registryId", value.registryId().toString());
+        if (value.groupId() != null) object.addProperty("groupId", value.groupId().toString());
+        if (value.keepLoaded()) object.addProperty("keepLoaded", true);
+
+        if (value.dimension() != null) {
+            JsonObject position = new JsonObject();
+            position.addProperty("x", value.position().getX());
+            position.addProperty("y", value.position().getY());
+            position.addProperty("z", value.position().getZ());
+
+            object.addProperty("dimension", value.dimension().toString());
+            object.add("position", position);
+        }
+
+        return object;
+    };
+    // endregion
+
+    // region Helpers
+    private static boolean skipNull(JsonReader in) throws IOException {
+        if (in.peek() != JsonToken.NULL) return false;
+
+        in.nextNull();
+        return true;
+    }
+
+    private static String readString(JsonReader in) throws IOException {
+        if (skipNull(in)) return null;
+        return in.nextString();
+    }
+
+    private static UUID readUUID(JsonReader in) throws IOException {
+        String value = readString(in);
+        return value != null ? UUID.fromString(value) : null;
+    }
+
+    private static ArrayList<UUID> readUUIDs(JsonReader in) throws IOException {
+        if (skipNull(in)) return null;
+
+        ArrayList<UUID> values = new ArrayList<>();
+        in.beginArray();
+
+        while (in.hasNext()) {
+            values.add(readUUID(in));
+        }
+
+        in.endArray();
+        return values;
+    }
+
+    // Capabilities unknown to this server version are read as null, like Gson does for unknown enum constants
+    private static ArrayList<SocketCapability> readCapabilities(JsonReader in) throws IOException {
+        if (skipNull(in)) return null;
+
+        ArrayList<SocketCapability> capabilities = new ArrayList<>();
+        in.beginArray();
+
+        while (in.hasNext()) {
+            String name = readString(in);
+            SocketCapability capability = null;
+
+            for (SocketCapability value : SocketCapability.values()) {
+                if (value.name().equals(name)) capability = value;
+            }
+
+            capabilities.add(capability);
+        }
+
+        in.endArray();
+        return capabilities;
+    }
+
+    private static void writeString(JsonWriter out, String name, String value) throws IOException {
+        if (value != null) out.name(name).value(value);
+    }
+
+    private static void writeUUID(JsonWriter out, String name, UUID value) throws IOException {
+        if (value != null) out.name(name).value(value.toString());
+    }
+    // endregion
+}
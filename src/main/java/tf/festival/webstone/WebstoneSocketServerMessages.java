@@ -2,14 +2,18 @@ package tf.festival.webstone;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
-import com.google.gson.reflect.TypeToken;
 import tf.festival.webstone.data.WebstoneBlock;
 import tf.festival.webstone.data.WebstoneBlockGroup;
+import tf.festival.webstone.data.WebstoneBlockGroupSnapshot;
+import tf.festival.webstone.data.WebstoneBlockSnapshot;
 
+import java.io.IOException;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.UUID;
 
 enum SocketMessageType {
@@ -38,6 +42,33 @@ enum SocketMessageType {
     CHANGE_BLOCK_INDEX,
 
     CHANGE_GROUP_INDEX,
+
+    BLOCK_UPDATES,
+
+    BLOCK_ADDED,
+    BLOCK_REMOVED,
+    BLOCK_GROUP_ADDED,
+    BLOCK_GROUP_REMOVED,
+    BLOCK_GROUP_MOVED,
+    SYNC,
+    BATCH,
+    QUERY_AREA,
+    KEEP_LOADED,
+    BLOCK_SET,
+}
+
+enum SocketEncoding {
+    JSON,
+    BINARY,
+}
+
+enum SocketCapability {
+    // Block and group updates are coalesced per server tick and sent as a single BLOCK_UPDATES message
+    BATCHED_UPDATES,
+    // Structural registry changes are sent as versioned patches instead of full BLOCKS/BLOCK_GROUPS lists
+    REGISTRY_PATCHES,
+    // Block lists aren't sent after authentication, clients request the pages they need using BLOCK_LISTS
+    PAGED_BLOCK_LISTS,
 }
 
 class SocketMessage<T> {
@@ -46,33 +77,19 @@ class SocketMessage<T> {
 
     private static final Gson gson = new GsonBuilder()
         .registerTypeAdapter(Instant.class, new InstantAdapter())
+        .registerTypeAdapter(UnsubscriptionMessage.class, WebstoneSocketServerAdapters.UNSUBSCRIPTION)
+        .registerTypeAdapter(WebstoneBlockSnapshot.class, WebstoneSocketServerAdapters.BLOCK)
+        .registerTypeAdapter(BlockEventMessage.class, WebstoneSocketServerAdapters.BLOCK_EVENT)
+        .registerTypeAdapter(BlockGroupEventMessage.class, WebstoneSocketServerAdapters.BLOCK_GROUP_EVENT)
+        .registerTypeAdapter(ChangeIndexMessage.class, WebstoneSocketServerAdapters.CHANGE_INDEX)
         .create();
 
     public static <T> String serialize(SocketMessageType type, T payload) {
         return gson.toJson(new SocketMessage<>(type, payload));
     }
 
-    public static SocketMessage<?> deserialize(String message) {
-        SocketMessage<?> _message = gson.fromJson(message, TypeToken.get(SocketMessage.class));
-
-
-        if (_message.type == null) {
-            throw new IllegalArgumentException("Unknown payload type");
-        }
-
-        Class<?> payloadClass = switch (_message.type) {
-            case WELCOME -> WelcomeMessage.class;
-            case AUTH_REQ -> AuthenticationRequestMessage.class;
-            case SUBSCRIBE -> SubscriptionMessage.class;
-            case UNSUBSCRIBE -> UnsubscriptionMessage.class;
-            case BLOCK_STATE, BLOCK_POWER, RENAME_BLOCK, UNREGISTER_BLOCK, CHANGE_BLOCK_GROUP ->
-                BlockEventMessage.class;
-            case CREATE_GROUP, RENAME_GROUP, DELETE_GROUP -> BlockGroupEventMessage.class;
-            case CHANGE_BLOCK_INDEX, CHANGE_GROUP_INDEX -> ChangeIndexMessage.class;
-            default -> throw new IllegalArgumentException("Unknown payload type");
-        };
-
-        return gson.fromJson(message, TypeToken.getParameterized(SocketMessage.class, payloadClass).getType());
+    public static SocketMessage<?> deserialize(String message) throws IOException {
+        return WebstoneSocketServerAdapters.readMessage(message);
     }
 
     public SocketMessage(SocketMessageType type, T payload) {
@@ -93,7 +110,8 @@ class ServerErrorMessage {
 
 class WelcomeMessage {
     UUID socketId;
-    Instant expireTime = Instant.now().plus(15, ChronoUnit.SECONDS);
+    Instant expireTime = Instant.now().plus(WebstoneConfig.AUTHENTICATION_TIMEOUT.get(), ChronoUnit.SECONDS);
+    SocketCapability[] capabilities = SocketCapability.values();
 
     public WelcomeMessage(UUID socketId) {
         this.socketId = socketId;
@@ -102,6 +120,7 @@ class WelcomeMessage {
 
 class AuthenticationRequestMessage {
     String passphrase;
+    ArrayList<SocketCapability> capabilities;
 }
 
 class AuthenticationResponseMessage {
@@ -134,34 +153,141 @@ class SubscriptionResponseMessage {
 class UnsubscriptionMessage {
     UUID registryId;
 
+    UnsubscriptionMessage() {
+    }
+
     public UnsubscriptionMessage(UUID registryId) {
         this.registryId = registryId;
     }
 }
 
 class BlockListMessage {
-    final HashMap<UUID, String> blockLists = new HashMap<>();
+    // Sorted by name
+    final LinkedHashMap<UUID, String> blockLists = new LinkedHashMap<>();
+    // Only set in responses to BLOCK_LISTS requests
+    Integer offset;
+    Integer total;
+
+    public BlockListMessage(List<WebstoneRegistryDirectory.Entry> entries) {
+        for (WebstoneRegistryDirectory.Entry entry : entries) {
+            blockLists.put(entry.registryId(), entry.name());
+        }
+    }
+
+    public BlockListMessage(WebstoneRegistryDirectory.Page page) {
+        this(page.entries());
+
+        this.offset = page.offset();
+        this.total = page.total();
+    }
+}
+
+class BlockListRequestMessage {
+    // Case-insensitive prefix of the names to list, all block lists if empty
+    String prefix;
+    int offset;
+    int limit;
+}
+
+class AreaRequestMessage {
+    String dimension;
+    // Block coordinates (inclusive), the area spans the full height of the dimension
+    int minX;
+    int minZ;
+    int maxX;
+    int maxZ;
+}
+
+class AreaMessage {
+    String dimension;
+    int minX;
+    int minZ;
+    int maxX;
+    int maxZ;
+    // Only blocks of registries the client is subscribed to
+    ArrayList<WebstoneBlockSnapshot> blocks = new ArrayList<>();
+
+    public AreaMessage(AreaRequestMessage request) {
+        this.dimension = request.dimension;
+        this.minX = request.minX;
+        this.minZ = request.minZ;
+        this.maxX = request.maxX;
+        this.maxZ = request.maxZ;
+    }
+}
 
-    public BlockListMessage() {
-        for (WebstoneRegistry registry : WebstoneRegistry.getAllRegistries().values()) {
-            blockLists.put(registry.getRegistryId(), registry.getName());
+class SyncRequestMessage {
+    UUID registryId;
+}
+
+class BatchMessage {
+    // Only block and group mutations can be batched
+    static final EnumSet<SocketMessageType> BATCHABLE_TYPES = EnumSet.of(
+        SocketMessageType.BLOCK_POWER,
+        SocketMessageType.BLOCK_STATE,
+        SocketMessageType.BLOCK_SET,
+        SocketMessageType.RENAME_BLOCK,
+        SocketMessageType.UNREGISTER_BLOCK,
+        SocketMessageType.CHANGE_BLOCK_GROUP,
+        SocketMessageType.KEEP_LOADED,
+        SocketMessageType.CREATE_GROUP,
+        SocketMessageType.RENAME_GROUP,
+        SocketMessageType.DELETE_GROUP,
+        SocketMessageType.CHANGE_BLOCK_INDEX,
+        SocketMessageType.CHANGE_GROUP_INDEX
+    );
+
+    ArrayList<SocketMessage<?>> messages = new ArrayList<>();
+
+    static void checkSize(int size) {
+        if (size > WebstoneConfig.MAX_BATCH_SIZE.get()) {
+            throw new IllegalArgumentException(String.format("Batch exceeds the maximum of %d messages", WebstoneConfig.MAX_BATCH_SIZE.get()));
+        }
+    }
+
+    static void checkType(SocketMessageType type) {
+        if (!BATCHABLE_TYPES.contains(type)) {
+            throw new IllegalArgumentException(String.format("Payload type %s cannot be batched", type));
         }
     }
 }
 
 class BlocksMessage {
-    ArrayList<WebstoneBlock> blocks;
+    UUID registryId;
+    long version;
+    List<WebstoneBlockSnapshot> blocks;
 
-    public BlocksMessage(ArrayList<WebstoneBlock> blocks) {
-        this.blocks = blocks;
+    public BlocksMessage(WebstoneRegistrySnapshot snapshot) {
+        this.registryId = snapshot.getRegistryId();
+        this.version = snapshot.getVersion();
+        this.blocks = snapshot.getBlocks();
     }
 }
 
 class BlockGroupsMessage {
-    ArrayList<WebstoneBlockGroup> blockGroups;
+    UUID registryId;
+    long version;
+    List<WebstoneBlockGroupSnapshot> blockGroups;
 
-    public BlockGroupsMessage(ArrayList<WebstoneBlockGroup> blockGroups) {
-        this.blockGroups = blockGroups;
+    public BlockGroupsMessage(WebstoneRegistrySnapshot snapshot) {
+        this.registryId = snapshot.getRegistryId();
+        this.version = snapshot.getVersion();
+        this.blockGroups = snapshot.getBlockGroups();
+    }
+}
+
+class RegistryPatchMessage {
+    UUID registryId;
+    long version;
+
+    UUID id;
+    Integer index;
+    BlockEventMessage block;
+    BlockGroupEventMessage blockGroup;
+
+    public RegistryPatchMessage(WebstoneRegistry registry) {
+        this.registryId = registry.getRegistryId();
+        this.version = registry.getVersion();
     }
 }
 
@@ -171,6 +297,11 @@ class BlockEventMessage {
     boolean powered;
     int power;
     String groupId;
+    // Only written if set
+    boolean keepLoaded;
+
+    BlockEventMessage() {
+    }
 
     public BlockEventMessage(WebstoneBlock block) {
         this.blockId = block.getBlockId();
@@ -181,18 +312,24 @@ class BlockEventMessage {
         if (block.getGroupId() != null) {
             this.groupId = block.getGroupId().toString();
         }
+
+        this.keepLoaded = block.isKeepLoaded();
     }
 }
 
 class BlockGroupEventMessage {
     UUID groupId;
     String name;
-    ArrayList<UUID> blockIds;
+    List<UUID> blockIds;
+
+    BlockGroupEventMessage() {
+    }
 
     public BlockGroupEventMessage(WebstoneBlockGroup blockGroup) {
         this.groupId = blockGroup.getGroupId();
         this.name = blockGroup.getName();
-        this.blockIds = new ArrayList<>(blockGroup.getBlockIds());
+        // The snapshot is immutable, so it's shared instead of copied
+        this.blockIds = blockGroup.getBlockIds();
     }
 }
 
@@ -200,3 +337,13 @@ class ChangeIndexMessage {
     UUID id;
     int newIndex;
 }
+
+class BlockUpdatesMessage {
+    UUID registryId;
+    ArrayList<BlockEventMessage> blocks = new ArrayList<>();
+    ArrayList<BlockGroupEventMessage> blockGroups = new ArrayList<>();
+
+    public BlockUpdatesMessage(UUID registryId) {
+        this.registryId = registryId;
+    }
+}
\ No newline at end of file
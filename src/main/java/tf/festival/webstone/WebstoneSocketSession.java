@@ -0,0 +1,172 @@
+package tf.festival.webstone;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.WebSocketImpl;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+class WebstoneSocketSession {
+    enum AuthenticationState {
+        NONE, AUTHENTICATED, SUBSCRIBED
+    }
+
+    private final UUID socketId;
+    private final WebSocket socket;
+    private volatile AuthenticationState authenticationState = AuthenticationState.NONE;
+    private final AtomicBoolean authenticating = new AtomicBoolean();
+    private volatile SocketEncoding encoding = SocketEncoding.JSON;
+    private final EnumSet<SocketCapability> capabilities = EnumSet.noneOf(SocketCapability.class);
+
+    // Insertion ordered, so the first subscribed registry is used for registry-less commands (e.g. CREATE_GROUP)
+    private final Set<UUID> registryIds = new CopyOnWriteArraySet<>();
+
+    private WebstoneTimeoutScheduler.Timeout disconnectTimeout;
+
+    // Set while more than OutboundQueueLimit bytes are waiting to be sent to this client
+    private volatile boolean congested;
+    private volatile boolean resyncRequired;
+    private final WebstoneUpdateBatcher deferredUpdates = new WebstoneUpdateBatcher();
+
+    public WebstoneSocketSession(UUID socketId, WebSocket socket) {
+        this.socketId = socketId;
+        this.socket = socket;
+    }
+
+    public UUID getSocketId() {
+        return socketId;
+    }
+
+    public WebSocket getSocket() {
+        return socket;
+    }
+
+    public AuthenticationState getAuthenticationState() {
+        return authenticationState;
+    }
+
+    public void setAuthenticationState(AuthenticationState authenticationState) {
+        this.authenticationState = authenticationState;
+    }
+
+    public boolean isAuthenticated() {
+        return authenticationState.ordinal() >= AuthenticationState.AUTHENTICATED.ordinal();
+    }
+
+    public boolean isSubscribed() {
+        return authenticationState.ordinal() >= AuthenticationState.SUBSCRIBED.ordinal();
+    }
+
+    // Returns false if a previous authentication request is still being verified
+    public boolean beginAuthentication() {
+        return authenticating.compareAndSet(false, true);
+    }
+
+    public void endAuthentication() {
+        authenticating.set(false);
+    }
+
+    public SocketEncoding getEncoding() {
+        return encoding;
+    }
+
+    public void setEncoding(SocketEncoding encoding) {
+        this.encoding = encoding;
+    }
+
+    public boolean hasCapability(SocketCapability capability) {
+        return capabilities.contains(capability);
+    }
+
+    public void setCapabilities(Collection<SocketCapability> capabilities) {
+        this.capabilities.clear();
+
+        if (capabilities != null) {
+            for (SocketCapability capability : capabilities) {
+                // Capabilities unknown to this server version are deserialized as null
+                if (capability != null) this.capabilities.add(capability);
+            }
+        }
+    }
+
+    public Set<UUID> getRegistryIds() {
+        return Collections.unmodifiableSet(registryIds);
+    }
+
+    public UUID getRegistryId() {
+        if (registryIds.isEmpty()) return null;
+        return registryIds.iterator().next();
+    }
+
+    public boolean addRegistry(UUID registryId) {
+        return registryIds.add(registryId);
+    }
+
+    public boolean removeRegistry(UUID registryId) {
+        return registryIds.remove(registryId);
+    }
+
+    public void setDisconnectTimeout(WebstoneTimeoutScheduler.Timeout disconnectTimeout) {
+        this.disconnectTimeout = disconnectTimeout;
+    }
+
+    public void cancelDisconnectTimeout() {
+        if (disconnectTimeout != null) {
+            disconnectTimeout.cancel();
+            disconnectTimeout = null;
+        }
+    }
+
+    // region Outbound Queue
+    public int getQueuedFrames() {
+        if (!(socket instanceof WebSocketImpl impl)) return 0;
+        return impl.outQueue.size();
+    }
+
+    public long getQueuedBytes() {
+        if (!(socket instanceof WebSocketImpl impl) || !impl.hasBufferedData()) return 0;
+
+        long queuedBytes = 0;
+        for (ByteBuffer buffer : impl.outQueue) {
+            queuedBytes += buffer.remaining();
+        }
+
+        return queuedBytes;
+    }
+
+    public boolean isCongested() {
+        return congested;
+    }
+
+    public void setCongested(boolean congested) {
+        this.congested = congested;
+    }
+
+    public boolean isResyncRequired() {
+        return resyncRequired;
+    }
+
+    // Updates deferred so far are covered by the full lists sent on recovery
+    public void requireResync() {
+        resyncRequired = true;
+        deferredUpdates.clear();
+    }
+
+    public boolean consumeResync() {
+        boolean required = resyncRequired;
+        resyncRequired = false;
+
+        return required;
+    }
+
+    public WebstoneUpdateBatcher getDeferredUpdates() {
+        return deferredUpdates;
+    }
+    // endregion
+}
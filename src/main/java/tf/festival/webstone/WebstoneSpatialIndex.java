@@ -0,0 +1,118 @@
+package tf.festival.webstone;
+
+import net.minecraft.core.BlockPos;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.world.level.ChunkPos;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+// Registered blocks by dimension and chunk, so blocks can be found by their position without loading any chunks.
+// Maintained by WebstoneRegistry for blocks with a known location, and only used on the server thread.
+class WebstoneSpatialIndex {
+    record Entry(UUID blockId, BlockPos position) {
+    }
+
+    // Chunks are keyed by ChunkPos.asLong
+    private static final Map<ResourceLocation, Map<Long, List<Entry>>> dimensions = new HashMap<>();
+    private static int size;
+
+    public static void add(ResourceLocation dimension, BlockPos position, UUID blockId) {
+        List<Entry> entries = dimensions.computeIfAbsent(dimension, key -> new HashMap<>())
+            .computeIfAbsent(ChunkPos.asLong(position.getX() >> 4, position.getZ() >> 4), key -> new ArrayList<>(1));
+
+        // A block is only indexed once per chunk, even if a replaced registry still held it
+        if (!entries.removeIf(entry -> entry.blockId().equals(blockId))) size++;
+        entries.add(new Entry(blockId, position));
+    }
+
+    public static void remove(ResourceLocation dimension, BlockPos position, UUID blockId) {
+        Map<Long, List<Entry>> chunks = dimensions.get(dimension);
+        if (chunks == null) return;
+
+        long chunkKey = ChunkPos.asLong(position.getX() >> 4, position.getZ() >> 4);
+        List<Entry> entries = chunks.get(chunkKey);
+        if (entries == null || !entries.removeIf(entry -> entry.blockId().equals(blockId))) return;
+
+        size--;
+
+        if (entries.isEmpty()) {
+            chunks.remove(chunkKey);
+            if (chunks.isEmpty()) dimensions.remove(dimension);
+        }
+    }
+
+    public static boolean contains(ResourceLocation dimension, BlockPos position, UUID blockId) {
+        for (Entry entry : getBlocksInChunk(dimension, position.getX() >> 4, position.getZ() >> 4)) {
+            if (entry.blockId().equals(blockId) && entry.position().equals(position)) return true;
+        }
+
+        return false;
+    }
+
+    public static int size() {
+        return size;
+    }
+
+    public static void clear() {
+        dimensions.clear();
+        size = 0;
+    }
+
+    public static List<Entry> getBlocksInChunk(ResourceLocation dimension, int chunkX, int chunkZ) {
+        Map<Long, List<Entry>> chunks = dimensions.get(dimension);
+        if (chunks == null) return List.of();
+
+        List<Entry> entries = chunks.get(ChunkPos.asLong(chunkX, chunkZ));
+        return entries != null ? entries : List.of();
+    }
+
+    // Blocks within the given block coordinates (inclusive) over the full height of the dimension
+    public static List<Entry> getBlocksInArea(ResourceLocation dimension, int minX, int minZ, int maxX, int maxZ) {
+        ArrayList<Entry> result = new ArrayList<>();
+
+        Map<Long, List<Entry>> chunks = dimensions.get(dimension);
+        if (chunks == null || minX > maxX || minZ > maxZ) return result;
+
+        int minChunkX = minX >> 4;
+        int minChunkZ = minZ >> 4;
+        int maxChunkX = maxX >> 4;
+        int maxChunkZ = maxZ >> 4;
+
+        // Large areas are mostly empty, so only the chunks holding blocks are visited then
+        long chunkCount = (long) (maxChunkX - minChunkX + 1) * (maxChunkZ - minChunkZ + 1);
+
+        if (chunkCount > chunks.size()) {
+            for (Map.Entry<Long, List<Entry>> chunk : chunks.entrySet()) {
+                int chunkX = ChunkPos.getX(chunk.getKey());
+                int chunkZ = ChunkPos.getZ(chunk.getKey());
+
+                if (chunkX >= minChunkX && chunkX <= maxChunkX && chunkZ >= minChunkZ && chunkZ <= maxChunkZ) {
+                    addEntriesInArea(result, chunk.getValue(), minX, minZ, maxX, maxZ);
+                }
+            }
+        } else {
+            for (int chunkX = minChunkX; chunkX <= maxChunkX; chunkX++) {
+                for (int chunkZ = minChunkZ; chunkZ <= maxChunkZ; chunkZ++) {
+                    List<Entry> entries = chunks.get(ChunkPos.asLong(chunkX, chunkZ));
+                    if (entries != null) addEntriesInArea(result, entries, minX, minZ, maxX, maxZ);
+                }
+            }
+        }
+
+        return result;
+    }
+
+    private static void addEntriesInArea(List<Entry> result, List<Entry> entries, int minX, int minZ, int maxX, int maxZ) {
+        for (Entry entry : entries) {
+            BlockPos position = entry.position();
+
+            if (position.getX() >= minX && position.getX() <= maxX && position.getZ() >= minZ && position.getZ() <= maxZ) {
+                result.add(entry);
+            }
+        }
+    }
+}
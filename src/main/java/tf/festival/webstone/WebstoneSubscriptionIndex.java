@@ -0,0 +1,182 @@
+package tf.festival.webstone;
+
+import org.java_websocket.WebSocket;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+// Maps registries to their subscribed sessions.
+// Subscriber lists are copied on write and never mutated once published, so broadcasts can read them from any thread
+// without locking. Sockets are grouped by encoding and capability up front, so broadcasting doesn't allocate either.
+class WebstoneSubscriptionIndex {
+    static class Clients {
+        static final Clients EMPTY = new Clients(List.of(), List.of(), List.of());
+
+        final List<WebstoneSocketSession> sessions;
+        final List<WebSocket> jsonClients;
+        final List<WebSocket> binaryClients;
+
+        private Clients(List<WebstoneSocketSession> sessions, List<WebSocket> jsonClients, List<WebSocket> binaryClients) {
+            this.sessions = sessions;
+            this.jsonClients = jsonClients;
+            this.binaryClients = binaryClients;
+        }
+
+        private static Clients of(List<WebstoneSocketSession> sessions) {
+            if (sessions.isEmpty()) return EMPTY;
+
+            ArrayList<WebSocket> jsonClients = new ArrayList<>();
+            ArrayList<WebSocket> binaryClients = new ArrayList<>();
+
+            for (WebstoneSocketSession session : sessions) {
+                if (session.getEncoding() == SocketEncoding.BINARY) {
+                    binaryClients.add(session.getSocket());
+                } else {
+                    jsonClients.add(session.getSocket());
+                }
+            }
+
+            return new Clients(List.copyOf(sessions), Collections.unmodifiableList(jsonClients), Collections.unmodifiableList(binaryClients));
+        }
+
+        public boolean isEmpty() {
+            return sessions.isEmpty();
+        }
+
+        // Unlike the precomputed lists, this allocates, so it's only used while some clients need to be skipped
+        public Clients filter(Predicate<WebstoneSocketSession> predicate) {
+            ArrayList<WebstoneSocketSession> filtered = new ArrayList<>(sessions.size());
+
+            for (WebstoneSocketSession session : sessions) {
+                if (predicate.test(session)) filtered.add(session);
+            }
+
+            return filtered.size() == sessions.size() ? this : Clients.of(filtered);
+        }
+    }
+
+    static class Subscribers {
+        static final Subscribers EMPTY = new Subscribers(new WebstoneSocketSession[0]);
+
+        private final WebstoneSocketSession[] sessions;
+        private final Clients clients;
+        private final EnumMap<SocketCapability, Clients> capableClients = new EnumMap<>(SocketCapability.class);
+        private final EnumMap<SocketCapability, Clients> otherClients = new EnumMap<>(SocketCapability.class);
+
+        private Subscribers(WebstoneSocketSession[] sessions) {
+            this.sessions = sessions;
+            this.clients = Clients.of(Arrays.asList(sessions));
+
+            for (SocketCapability capability : SocketCapability.values()) {
+                ArrayList<WebstoneSocketSession> capable = new ArrayList<>();
+                ArrayList<WebstoneSocketSession> other = new ArrayList<>();
+
+                for (WebstoneSocketSession session : sessions) {
+                    (session.hasCapability(capability) ? capable : other).add(session);
+                }
+
+                capableClients.put(capability, Clients.of(capable));
+                otherClients.put(capability, Clients.of(other));
+            }
+        }
+
+        public int size() {
+            return sessions.length;
+        }
+
+        public boolean isEmpty() {
+            return sessions.length == 0;
+        }
+
+        public List<WebstoneSocketSession> getSessions() {
+            return Collections.unmodifiableList(Arrays.asList(sessions));
+        }
+
+        public Clients getClients() {
+            return clients;
+        }
+
+        // Clients having the capability
+        public Clients getClients(SocketCapability capability) {
+            return capableClients.get(capability);
+        }
+
+        // Clients lacking the capability
+        public Clients getClientsWithout(SocketCapability capability) {
+            return otherClients.get(capability);
+        }
+
+        private Subscribers with(WebstoneSocketSession session) {
+            WebstoneSocketSession[] newSessions = Arrays.copyOf(sessions, sessions.length + 1);
+            newSessions[sessions.length] = session;
+
+            return new Subscribers(newSessions);
+        }
+
+        private Subscribers without(int index) {
+            if (sessions.length == 1) return null;
+
+            WebstoneSocketSession[] newSessions = new WebstoneSocketSession[sessions.length - 1];
+            System.arraycopy(sessions, 0, newSessions, 0, index);
+            System.arraycopy(sessions, index + 1, newSessions, index, sessions.length - index - 1);
+
+            return new Subscribers(newSessions);
+        }
+
+        private int indexOf(WebstoneSocketSession session) {
+            for (int i = 0; i < sessions.length; i++) {
+                if (sessions[i] == session) return i;
+            }
+
+            return -1;
+        }
+    }
+
+    private final ConcurrentHashMap<UUID, Subscribers> registrySubscribers = new ConcurrentHashMap<>();
+
+    public Subscribers getSubscribers(UUID registryId) {
+        if (registryId == null) return Subscribers.EMPTY;
+
+        Subscribers subscribers = registrySubscribers.get(registryId);
+        return subscribers != null ? subscribers : Subscribers.EMPTY;
+    }
+
+    public boolean hasSubscribers(UUID registryId) {
+        return registryId != null && registrySubscribers.containsKey(registryId);
+    }
+
+    public boolean subscribe(UUID registryId, WebstoneSocketSession session) {
+        boolean[] added = new boolean[1];
+
+        registrySubscribers.compute(registryId, (k, subscribers) -> {
+            if (subscribers == null) subscribers = Subscribers.EMPTY;
+            if (subscribers.indexOf(session) >= 0) return subscribers;
+
+            added[0] = true;
+            return subscribers.with(session);
+        });
+
+        return added[0];
+    }
+
+    public boolean unsubscribe(UUID registryId, WebstoneSocketSession session) {
+        boolean[] removed = new boolean[1];
+
+        // Returning null from compute drops registries without subscribers
+        registrySubscribers.computeIfPresent(registryId, (k, subscribers) -> {
+            int index = subscribers.indexOf(session);
+            if (index < 0) return subscribers;
+
+            removed[0] = true;
+            return subscribers.without(index);
+        });
+
+        return removed[0];
+    }
+}
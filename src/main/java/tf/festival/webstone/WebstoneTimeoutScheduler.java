@@ -0,0 +1,131 @@
+package tf.festival.webstone;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+// Hashed timing wheel running all socket deadlines on a single thread.
+// Scheduling and cancelling are O(1), expired timeouts are run with a precision of one tick.
+class WebstoneTimeoutScheduler {
+    private static final int WHEEL_SIZE = 512;
+
+    class Timeout {
+        private final Runnable task;
+        private final long deadline;
+        private long remainingRounds;
+        private volatile boolean cancelled;
+
+        private Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        // Cancelled timeouts stay in their bucket until the wheel reaches them and are dropped there
+        public void cancel() {
+            cancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+
+    private final long tickDuration;
+    private final List<ArrayList<Timeout>> wheel = new ArrayList<>(WHEEL_SIZE);
+    private final Queue<Timeout> pendingTimeouts = new ConcurrentLinkedQueue<>();
+    private final Thread workerThread;
+
+    private final long startTime = System.nanoTime();
+    private volatile boolean running;
+    private long tick;
+
+    public WebstoneTimeoutScheduler(long tickDuration, TimeUnit unit) {
+        this.tickDuration = Math.max(unit.toNanos(tickDuration), TimeUnit.MILLISECONDS.toNanos(1));
+
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            wheel.add(new ArrayList<>());
+        }
+
+        workerThread = new Thread(this::run, "Webstone Timeout Scheduler");
+        workerThread.setDaemon(true);
+    }
+
+    public synchronized void start() {
+        if (running) return;
+
+        running = true;
+        workerThread.start();
+    }
+
+    public void stop() {
+        running = false;
+        workerThread.interrupt();
+
+        pendingTimeouts.clear();
+    }
+
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        Timeout timeout = new Timeout(task, System.nanoTime() - startTime + unit.toNanos(delay));
+        pendingTimeouts.add(timeout);
+
+        return timeout;
+    }
+
+    private void run() {
+        while (running) {
+            long sleepTime = (tick + 1) * tickDuration - (System.nanoTime() - startTime);
+
+            if (sleepTime > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleepTime);
+                } catch (InterruptedException ex) {
+                    continue;
+                }
+            }
+
+            transferPendingTimeouts();
+            expireTimeouts(wheel.get((int) (tick % WHEEL_SIZE)));
+
+            tick++;
+        }
+
+        for (ArrayList<Timeout> bucket : wheel) {
+            bucket.clear();
+        }
+    }
+
+    private void transferPendingTimeouts() {
+        Timeout timeout;
+
+        while ((timeout = pendingTimeouts.poll()) != null) {
+            if (timeout.cancelled) continue;
+
+            // Timeouts already past their deadline are run on the current tick
+            long ticks = Math.max(timeout.deadline / tickDuration, tick);
+            timeout.remainingRounds = (ticks - tick) / WHEEL_SIZE;
+
+            wheel.get((int) (ticks % WHEEL_SIZE)).add(timeout);
+        }
+    }
+
+    private void expireTimeouts(ArrayList<Timeout> bucket) {
+        bucket.removeIf(timeout -> {
+            if (timeout.cancelled) return true;
+
+            if (timeout.remainingRounds > 0) {
+                timeout.remainingRounds--;
+                return false;
+            }
+
+            try {
+                timeout.task.run();
+            } catch (Exception ex) {
+                Webstone.LOGGER.error(ex.getMessage(), (Object[]) ex.getStackTrace());
+            }
+
+            return true;
+        });
+    }
+}
@@ -0,0 +1,55 @@
+package tf.festival.webstone;
+
+import tf.festival.webstone.data.WebstoneBlock;
+import tf.festival.webstone.data.WebstoneBlockGroup;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+class WebstoneUpdateBatcher {
+    static class PendingUpdates {
+        // Keyed by id, so repeated updates to the same block or group within a tick only keep the latest reference
+        final LinkedHashMap<UUID, WebstoneBlock> blocks = new LinkedHashMap<>();
+        final LinkedHashMap<UUID, WebstoneBlockGroup> blockGroups = new LinkedHashMap<>();
+    }
+
+    private HashMap<UUID, PendingUpdates> pendingUpdates = new HashMap<>();
+
+    public synchronized void addBlock(UUID registryId, WebstoneBlock block) {
+        pendingUpdates.computeIfAbsent(registryId, k -> new PendingUpdates()).blocks.put(block.getBlockId(), block);
+    }
+
+    public synchronized void addBlockGroup(UUID registryId, WebstoneBlockGroup blockGroup) {
+        pendingUpdates.computeIfAbsent(registryId, k -> new PendingUpdates()).blockGroups.put(blockGroup.getGroupId(), blockGroup);
+    }
+
+    public synchronized void addAll(UUID registryId, PendingUpdates updates) {
+        PendingUpdates registryUpdates = pendingUpdates.computeIfAbsent(registryId, k -> new PendingUpdates());
+
+        // Re-inserting moves an id to the end, so the relative order of updates is kept
+        for (WebstoneBlock block : updates.blocks.values()) {
+            registryUpdates.blocks.remove(block.getBlockId());
+            registryUpdates.blocks.put(block.getBlockId(), block);
+        }
+
+        for (WebstoneBlockGroup blockGroup : updates.blockGroups.values()) {
+            registryUpdates.blockGroups.remove(blockGroup.getGroupId());
+            registryUpdates.blockGroups.put(blockGroup.getGroupId(), blockGroup);
+        }
+    }
+
+    public synchronized void clear() {
+        pendingUpdates.clear();
+    }
+
+    public synchronized Map<UUID, PendingUpdates> drain() {
+        if (pendingUpdates.isEmpty()) return Map.of();
+
+        HashMap<UUID, PendingUpdates> drained = pendingUpdates;
+        pendingUpdates = new HashMap<>();
+
+        return drained;
+    }
+}
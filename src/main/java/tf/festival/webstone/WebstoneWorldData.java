@@ -1,16 +1,14 @@
 package tf.festival.webstone;
 
+import net.minecraft.core.BlockPos;
 import net.minecraft.nbt.CompoundTag;
 import net.minecraft.nbt.ListTag;
 import net.minecraft.nbt.StringTag;
 import net.minecraft.nbt.Tag;
-import net.minecraft.server.level.ChunkHolder;
+import net.minecraft.resources.ResourceLocation;
 import net.minecraft.server.level.ServerLevel;
-import net.minecraft.world.level.block.entity.BlockEntity;
 import net.minecraft.world.level.saveddata.SavedData;
 import org.jetbrains.annotations.NotNull;
-import tf.festival.webstone.block.WebstoneRemoteBlock;
-import tf.festival.webstone.blockentity.WebstoneRemoteBlockEntity;
 import tf.festival.webstone.data.WebstoneBlock;
 import tf.festival.webstone.data.WebstoneBlockGroup;
 
@@ -58,7 +56,9 @@ public class WebstoneWorldData extends SavedData {
                 blockGroups.add(new WebstoneBlockGroup(groupId, name, blockIds));
             }
 
-            registry.getBlockGroups().addAll(blockGroups);
+            for (WebstoneBlockGroup blockGroup : blockGroups) {
+                registry.addBlockGroup(blockGroup);
+            }
 
             ArrayList<WebstoneBlock> blocks = new ArrayList<>();
             ListTag blockList = registryTag.getList("Blocks", Tag.TAG_COMPOUND);
@@ -79,23 +79,18 @@ public class WebstoneWorldData extends SavedData {
                 int power = blockTag.getInt("Power");
 
                 WebstoneBlock block = new WebstoneBlock(blockId, name, powered, power);
+                block.setKeepLoaded(blockTag.getBoolean("KeepLoaded"));
 
                 if (groupId != null && registry.getBlockGroupById(groupId) != null) {
                     block.setGroupId(groupId);
                 }
 
-                for (ServerLevel level : Webstone.SERVER.getAllLevels()) {
-                    for (ChunkHolder holder : Webstone.getLoadedChunks(level)) {
-                        if (holder.getFullChunk() == null) continue;
-
-                        for (BlockEntity entity : holder.getFullChunk().getBlockEntities().values()) {
-                            if (entity instanceof WebstoneRemoteBlockEntity blockEntity) {
-                                if (blockEntity.getBlockId().equals(blockId)) {
-                                    block.setBlock((WebstoneRemoteBlock) blockEntity.getBlockState().getBlock());
-                                    block.setBlockEntity(blockEntity);
-                                }
-                            }
-                        }
+                // Missing for blocks registered before locations were recorded, filled in once their chunk is loaded
+                if (blockTag.contains("Dimension") && blockTag.contains("Position")) {
+                    ResourceLocation dimension = ResourceLocation.tryParse(blockTag.getString("Dimension"));
+
+                    if (dimension != null) {
+                        block.setLocation(dimension, BlockPos.of(blockTag.getLong("Position")));
                     }
                 }
 
@@ -103,9 +98,21 @@ public class WebstoneWorldData extends SavedData {
             }
 
             registry.addBlocks(blocks);
-            WebstoneRegistry.getAllRegistries().put(registryId, registry);
+            WebstoneRegistry.addRegistry(registry);
+        }
+
+        for (String error : WebstoneRegistry.checkConsistency()) {
+            Webstone.LOGGER.warn(error);
         }
 
+        // Blocks changed while their chunk wasn't loaded, applied once it's loaded again
+        ArrayList<UUID> pendingBlockIds = new ArrayList<>();
+        for (Tag blockIdTag : compoundTag.getList("PendingBlockIDs", Tag.TAG_STRING)) {
+            pendingBlockIds.add(UUID.fromString(blockIdTag.getAsString()));
+        }
+
+        WebstoneBlockJournal.setPendingBlockIds(pendingBlockIds);
+
         CompoundTag userContextTag = compoundTag.getCompound("UserContext");
         for (String userId : userContextTag.getAllKeys()) {
             WebstoneRegistry.setUserRegistryContext(UUID.fromString(userId), WebstoneRegistry.WebstoneRegistryContext.values()[userContextTag.getInt(userId)]);
@@ -142,6 +149,15 @@ public class WebstoneWorldData extends SavedData {
                 blockTag.putBoolean("Powered", block.isPowered());
                 blockTag.putInt("Power", block.getPower());
 
+                if (block.isKeepLoaded()) {
+                    blockTag.putBoolean("KeepLoaded", true);
+                }
+
+                if (block.getDimension() != null) {
+                    blockTag.putString("Dimension", block.getDimension().toString());
+                    blockTag.putLong("Position", block.getPosition().asLong());
+                }
+
                 blockListTag.add(blockTag);
             }
 
@@ -170,6 +186,13 @@ public class WebstoneWorldData extends SavedData {
 
         compoundTag.put("BlockRegistry", registriesTag);
 
+        ListTag pendingBlockIdsTag = new ListTag();
+        for (UUID blockId : WebstoneBlockJournal.getPendingBlockIds()) {
+            pendingBlockIdsTag.add(StringTag.valueOf(blockId.toString()));
+        }
+
+        compoundTag.put("PendingBlockIDs", pendingBlockIdsTag);
+
         CompoundTag userContextTag = new CompoundTag();
         for (Map.Entry<UUID, WebstoneRegistry.WebstoneRegistryContext> userContext : WebstoneRegistry.getAllUsersRegistryContext().entrySet()) {
             userContextTag.putInt(userContext.getKey().toString(), userContext.getValue().ordinal());
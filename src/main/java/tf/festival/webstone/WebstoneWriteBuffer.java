@@ -0,0 +1,48 @@
+package tf.festival.webstone;
+
+import tf.festival.webstone.blockentity.WebstoneRemoteBlockEntity;
+import tf.festival.webstone.data.WebstoneBlock;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.UUID;
+
+// Changed blocks are written to the world once at the end of the tick, so changing the powered state and power of a
+// block, or changing it several times within a tick, only causes a single block update and neighbor update cascade.
+// The registry already holds the latest values, so only the ids of changed blocks are kept. Only used on the server thread.
+public class WebstoneWriteBuffer {
+    private static final Set<UUID> changedBlockIds = new LinkedHashSet<>();
+
+    public static void schedule(UUID blockId) {
+        changedBlockIds.add(blockId);
+    }
+
+    public static void clear() {
+        changedBlockIds.clear();
+    }
+
+    // Called at the end of every tick
+    public static void flush() {
+        if (changedBlockIds.isEmpty()) return;
+
+        for (UUID blockId : changedBlockIds) {
+            WebstoneBlock block = WebstoneRegistry.getBlockInAnyRegistry(blockId);
+            if (block == null) continue;
+
+            WebstoneRemoteBlockEntity blockEntity = block.getBlockEntity();
+
+            // Unloaded within the tick, the change is applied once the chunk is loaded again
+            if (blockEntity == null || blockEntity.isRemoved()) {
+                WebstoneBlockJournal.markPending(blockId);
+                continue;
+            }
+
+            // Changes reverted within the tick don't touch the world at all
+            if (blockEntity.isPowered() != block.isPowered() || blockEntity.getPower() != block.getPower()) {
+                blockEntity.setState(block.isPowered(), block.getPower());
+            }
+        }
+
+        changedBlockIds.clear();
+    }
+}
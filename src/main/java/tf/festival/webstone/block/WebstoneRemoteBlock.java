@@ -100,7 +100,7 @@ public class WebstoneRemoteBlock extends DirectionalBlock implements EntityBlock
                     UUID blockId = ((WebstoneRemoteBlockEntity) blockEntity).getBlockId();
 
                     if (!player.isCrouching()) {
-                        if (WebstoneRegistry.registerBlock(blockId, (WebstoneRemoteBlockEntity) blockEntity, player, state.getValue(POWERED), state.getValue(POWER))) {
+                        if (WebstoneRegistry.registerBlock(blockId, player, level.dimension().location(), pos, state.getValue(POWERED), state.getValue(POWER))) {
                             player.displayClientMessage(Component.literal("Webstone block registered."), true);
 
                             return InteractionResult.SUCCESS;
@@ -6,33 +6,70 @@ import net.minecraft.world.level.block.entity.BlockEntity;
 import net.minecraft.world.level.block.state.BlockState;
 import org.jetbrains.annotations.NotNull;
 import tf.festival.webstone.WebstoneBlockEntities;
+import tf.festival.webstone.WebstoneBlockJournal;
+import tf.festival.webstone.WebstoneRegistry;
 import tf.festival.webstone.block.WebstoneRemoteBlock;
 
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class WebstoneRemoteBlockEntity extends BlockEntity {
+    // Block entities currently loaded on the server, registered blocks are bound to them through their id
+    private static final Map<UUID, WebstoneRemoteBlockEntity> loadedBlockEntities = new ConcurrentHashMap<>();
+
     private UUID blockId = UUID.randomUUID();
 
     public WebstoneRemoteBlockEntity(BlockPos pos, BlockState state) {
         super(WebstoneBlockEntities.WEBSTONE_REMOTE_BLOCK_ENTITY.get(), pos, state);
     }
 
+    public static WebstoneRemoteBlockEntity getLoadedBlockEntity(UUID blockId) {
+        return loadedBlockEntities.get(blockId);
+    }
+
     public UUID getBlockId() {
         return blockId;
     }
 
-    public void setPowered(boolean powered) {
+    public boolean isPowered() {
+        return getBlockState().getValue(WebstoneRemoteBlock.POWERED);
+    }
+
+    public int getPower() {
+        return getBlockState().getValue(WebstoneRemoteBlock.POWER);
+    }
+
+    // Applies both values in a single block update, changes of registered blocks are written by WebstoneWriteBuffer
+    public void setState(boolean powered, int power) {
         if (level != null) {
-            level.setBlock(worldPosition, getBlockState().setValue(WebstoneRemoteBlock.POWERED, powered), 3);
+            level.setBlock(worldPosition, getBlockState().setValue(WebstoneRemoteBlock.POWERED, powered).setValue(WebstoneRemoteBlock.POWER, power), 3);
         }
     }
 
-    public void setPower(int power) {
-        if (level != null) {
-            level.setBlock(worldPosition, getBlockState().setValue(WebstoneRemoteBlock.POWER, power), 3);
+    @Override
+    public void onLoad() {
+        super.onLoad();
+
+        if (level != null && !level.isClientSide) {
+            loadedBlockEntities.put(blockId, this);
+            WebstoneRegistry.updateBlockLocation(blockId, level.dimension().location(), worldPosition);
+            WebstoneBlockJournal.markLoaded(blockId);
         }
     }
 
+    @Override
+    public void onChunkUnloaded() {
+        super.onChunkUnloaded();
+        loadedBlockEntities.remove(blockId, this);
+    }
+
+    @Override
+    public void setRemoved() {
+        super.setRemoved();
+        loadedBlockEntities.remove(blockId, this);
+    }
+
     @Override
     public void load(@NotNull CompoundTag tag) {
         super.load(tag);
@@ -1,21 +1,29 @@
 package tf.festival.webstone.data;
 
-import tf.festival.webstone.block.WebstoneRemoteBlock;
+import net.minecraft.core.BlockPos;
+import net.minecraft.resources.ResourceLocation;
+import tf.festival.webstone.WebstoneBlockJournal;
+import tf.festival.webstone.WebstoneChunkTickets;
+import tf.festival.webstone.WebstoneWriteBuffer;
 import tf.festival.webstone.blockentity.WebstoneRemoteBlockEntity;
 
+import java.util.Objects;
 import java.util.UUID;
 
+// Once added to a registry, the values of a block are kept in the block store of the registry and
+// instances are only views into it. Views of the same block are equal and can be used interchangeably.
 public class WebstoneBlock {
     private final UUID blockId;
+    private transient WebstoneBlockStore store;
+
+    // Values of blocks not stored in a registry (yet or anymore)
     private String name;
     private boolean powered;
     private int power;
-
-    private UUID registryId;
     private UUID groupId;
-
-    private transient WebstoneRemoteBlock block;
-    private transient WebstoneRemoteBlockEntity blockEntity;
+    private ResourceLocation dimension;
+    private BlockPos position;
+    private boolean keepLoaded;
 
     public WebstoneBlock(UUID blockId, String name, boolean powered, int power) {
         this.blockId = blockId;
@@ -24,15 +32,44 @@ public class WebstoneBlock {
         this.power = power;
     }
 
+    WebstoneBlock(UUID blockId, WebstoneBlockStore store) {
+        this.blockId = blockId;
+        this.store = store;
+    }
+
+    void attach(WebstoneBlockStore store) {
+        this.store = store;
+    }
+
+    void detach(String name, boolean powered, int power, UUID groupId, ResourceLocation dimension, BlockPos position, boolean keepLoaded) {
+        this.store = null;
+        this.name = name;
+        this.powered = powered;
+        this.power = power;
+        this.groupId = groupId;
+        this.dimension = dimension;
+        this.position = position;
+        this.keepLoaded = keepLoaded;
+    }
+
+    // Slot of the block in its store, or -1 if the block isn't stored (anymore)
+    private int slot() {
+        return this.store != null ? this.store.indexOf(this.blockId) : -1;
+    }
+
     public UUID getBlockId() {
         return this.blockId;
     }
 
     public String getName() {
-        return this.name;
+        int slot = slot();
+        return slot != -1 ? this.store.getName(slot) : this.name;
     }
 
     public boolean setName(String name) {
+        int slot = slot();
+        if (slot != -1) return this.store.setName(slot, name);
+
         if (!name.equals(this.name)) {
             this.name = name;
 
@@ -43,70 +80,142 @@ public class WebstoneBlock {
     }
 
     public boolean isPowered() {
-        return this.powered;
+        int slot = slot();
+        return slot != -1 ? this.store.isPowered(slot) : this.powered;
     }
 
     public boolean setPowered(boolean powered) {
-        if (powered != this.powered) {
-            this.powered = powered;
+        int slot = slot();
+        boolean changed;
 
-            if (this.blockEntity != null)
-                this.blockEntity.setPowered((powered));
+        if (slot != -1) {
+            changed = this.store.setState(slot, powered, this.store.getPower(slot));
+        } else {
+            changed = powered != this.powered;
+            this.powered = powered;
+        }
 
-            return true;
+        if (changed && slot != -1) {
+            writeToWorld(slot);
         }
 
-        return false;
+        return changed;
     }
 
     public int getPower() {
-        return this.power;
+        int slot = slot();
+        return slot != -1 ? this.store.getPower(slot) : this.power;
     }
 
     public boolean setPower(int power) {
-        if (Math.min(Math.max(power, 0), 15) != this.power) {
-            this.power = Math.min(Math.max(power, 0), 15);
+        power = Math.min(Math.max(power, 0), 15);
 
-            if (this.blockEntity != null)
-                this.blockEntity.setPower(this.power);
+        int slot = slot();
+        boolean changed;
 
-            return true;
+        if (slot != -1) {
+            changed = this.store.setState(slot, this.store.isPowered(slot), power);
+        } else {
+            changed = power != this.power;
+            this.power = power;
         }
 
-        return false;
+        if (changed && slot != -1) {
+            writeToWorld(slot);
+        }
+
+        return changed;
     }
 
-    public UUID getRegistryId() {
-        if (this.registryId != null) return this.registryId;
-        return null;
+    // Blocks kept loaded have their chunk loaded while they are controlled remotely, see WebstoneChunkTickets
+    public boolean isKeepLoaded() {
+        int slot = slot();
+        return slot != -1 ? this.store.isKeepLoaded(slot) : this.keepLoaded;
+    }
+
+    public boolean setKeepLoaded(boolean keepLoaded) {
+        int slot = slot();
+        if (slot != -1) return this.store.setKeepLoaded(slot, keepLoaded);
+
+        boolean changed = keepLoaded != this.keepLoaded;
+        this.keepLoaded = keepLoaded;
+
+        return changed;
+    }
+
+    // Changes are written to the world at the end of the tick, or once the chunk of the block is loaded again
+    private void writeToWorld(int slot) {
+        ResourceLocation dimension = this.store.getDimension(slot);
+
+        if (dimension != null && this.store.isKeepLoaded(slot)) {
+            WebstoneChunkTickets.touch(dimension, this.store.getPosition(slot));
+        }
+
+        if (getBlockEntity() != null) {
+            WebstoneWriteBuffer.schedule(this.blockId);
+        } else {
+            WebstoneBlockJournal.markPending(this.blockId);
+        }
     }
 
-    public void setRegistryId(UUID registryId) {
-        this.registryId = registryId;
+    public UUID getRegistryId() {
+        return slot() != -1 ? this.store.getRegistryId() : null;
     }
 
     public UUID getGroupId() {
-        if (this.groupId != null) return this.groupId;
-        return null;
+        int slot = slot();
+        return slot != -1 ? this.store.getGroupId(slot) : this.groupId;
     }
 
     public void setGroupId(UUID groupId) {
-        this.groupId = groupId;
+        int slot = slot();
+
+        if (slot != -1) {
+            this.store.setGroupId(slot, groupId);
+        } else {
+            this.groupId = groupId;
+        }
+    }
+
+    // Dimension and position are null for blocks registered before locations were recorded
+    public ResourceLocation getDimension() {
+        int slot = slot();
+        return slot != -1 ? this.store.getDimension(slot) : this.dimension;
     }
 
-    public WebstoneRemoteBlock getBlock() {
-        return this.block;
+    public BlockPos getPosition() {
+        int slot = slot();
+        return slot != -1 ? this.store.getPosition(slot) : this.position;
     }
 
-    public void setBlock(WebstoneRemoteBlock block) {
-        this.block = block;
+    // Blocks in a registry are moved using WebstoneRegistry.updateBlockLocation, which keeps the spatial index up to date
+    public boolean setLocation(ResourceLocation dimension, BlockPos position) {
+        int slot = slot();
+        if (slot != -1) return this.store.setLocation(slot, dimension, position);
+
+        boolean changed = !Objects.equals(dimension, this.dimension) || !Objects.equals(position, this.position);
+        this.dimension = dimension;
+        this.position = position;
+
+        return changed;
+    }
+
+    public WebstoneBlockSnapshot snapshot() {
+        return new WebstoneBlockSnapshot(getBlockId(), getName(), isPowered(), getPower(), getRegistryId(), getGroupId(), getDimension(), getPosition(), isKeepLoaded());
     }
 
+    // Block entity of the block, or null if its chunk isn't loaded
     public WebstoneRemoteBlockEntity getBlockEntity() {
-        return this.blockEntity;
+        return WebstoneRemoteBlockEntity.getLoadedBlockEntity(this.blockId);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof WebstoneBlock block && this.blockId.equals(block.blockId);
     }
 
-    public void setBlockEntity(WebstoneRemoteBlockEntity blockEntity) {
-        this.blockEntity = blockEntity;
+    @Override
+    public int hashCode() {
+        return this.blockId.hashCode();
     }
 }
\ No newline at end of file
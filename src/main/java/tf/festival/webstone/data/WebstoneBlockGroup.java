@@ -1,15 +1,22 @@
 package tf.festival.webstone.data;
 
-import java.util.ArrayList;
+import tf.festival.webstone.WebstoneRegistry;
+
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 import java.util.UUID;
 
 public class WebstoneBlockGroup {
     // ZeroUUID = ungrouped blocks
     private UUID groupId = UUID.randomUUID();
     private String name;
-    private final ArrayList<UUID> blockIds = new ArrayList<>();
+    // Block order, with constant time membership and logarithmic time index lookups and reordering
+    private final transient WebstoneBlockOrder blockOrder = new WebstoneBlockOrder();
+
+    // Immutable copy of the block order shared by all readers, recreated after the next change
+    private transient volatile List<UUID> blockIdsSnapshot;
+    private transient UUID registryId;
 
     public WebstoneBlockGroup(String name) {
         this.name = name;
@@ -20,7 +27,9 @@ public class WebstoneBlockGroup {
         this.name = name;
 
         if (blockIds != null) {
-            this.blockIds.addAll(blockIds);
+            for (UUID blockId : blockIds) {
+                this.blockOrder.add(blockId, this.blockOrder.size());
+            }
         }
     }
 
@@ -34,30 +43,53 @@ public class WebstoneBlockGroup {
 
     public void setName(String name) {
         this.name = name;
+        markModified();
     }
 
-    public Collection<UUID> getBlockIds() {
-        return Collections.unmodifiableCollection(blockIds);
+    public UUID getRegistryId() {
+        return this.registryId;
     }
 
-    public boolean addBlock(WebstoneBlock block) {
-        if (block == null) return false;
+    public void setRegistryId(UUID registryId) {
+        this.registryId = registryId;
+    }
 
-        if (!this.blockIds.contains(block.getBlockId()) && block.getGroupId() == null) {
-            this.blockIds.add(block.getBlockId());
-            block.setGroupId(this.getGroupId());
+    // Returns a shared immutable snapshot, which stays valid (and unchanged) after later changes to the group
+    public List<UUID> getBlockIds() {
+        List<UUID> snapshot = this.blockIdsSnapshot;
 
-            return true;
+        if (snapshot == null) {
+            snapshot = Collections.unmodifiableList(this.blockOrder.toList());
+            this.blockIdsSnapshot = snapshot;
         }
 
-        return false;
+        return snapshot;
+    }
+
+    public WebstoneBlockGroupSnapshot snapshot() {
+        return new WebstoneBlockGroupSnapshot(this.groupId, this.name, getBlockIds());
+    }
+
+    public boolean containsBlock(UUID blockId) {
+        return this.blockOrder.contains(blockId);
+    }
+
+    public int indexOf(UUID blockId) {
+        return this.blockOrder.indexOf(blockId);
+    }
+
+    public boolean addBlock(WebstoneBlock block) {
+        return addBlock(block, this.blockOrder.size());
     }
 
     public boolean addBlock(WebstoneBlock block, int index) {
         if (block == null) return false;
 
-        if (!this.blockIds.contains(block.getBlockId()) && block.getGroupId() == null) {
-            this.blockIds.add(index, block.getBlockId());
+        if (!this.blockOrder.contains(block.getBlockId()) && block.getGroupId() == null) {
+            index = Math.min(Math.max(index, 0), this.blockOrder.size());
+
+            this.blockOrder.add(block.getBlockId(), index);
+            this.blockIdsSnapshot = null;
             block.setGroupId(this.getGroupId());
 
             return true;
@@ -67,16 +99,28 @@ public class WebstoneBlockGroup {
     }
 
     public boolean moveBlock(WebstoneBlock block, int index) {
-        if (block == null) return false;
+        if (block == null || !this.groupId.equals(block.getGroupId())) return false;
 
-        return this.removeBlock(block) && this.addBlock(block, index);
+        int currentIndex = this.blockOrder.indexOf(block.getBlockId());
+        if (currentIndex == -1) return false;
+
+        index = Math.min(Math.max(index, 0), this.blockOrder.size() - 1);
+        if (index == currentIndex) return true;
+
+        this.blockOrder.move(block.getBlockId(), index);
+        this.blockIdsSnapshot = null;
+
+        markModified();
+
+        return true;
     }
 
     public boolean removeBlock(WebstoneBlock block) {
         if (block == null) return false;
 
-        if (this.blockIds.contains(block.getBlockId()) && block.getGroupId().equals(this.groupId)) {
-            this.blockIds.remove(block.getBlockId());
+        if (this.blockOrder.contains(block.getBlockId()) && block.getGroupId().equals(this.groupId)) {
+            this.blockOrder.remove(block.getBlockId());
+            this.blockIdsSnapshot = null;
             block.setGroupId(null);
 
             return true;
@@ -84,4 +128,8 @@ public class WebstoneBlockGroup {
 
         return false;
     }
+
+    private void markModified() {
+        if (this.registryId != null) WebstoneRegistry.markModified(this.registryId);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,7 @@
+package tf.festival.webstone.data;
+
+import java.util.List;
+import java.util.UUID;
+
+public record WebstoneBlockGroupSnapshot(UUID groupId, String name, List<UUID> blockIds) {
+}
@@ -0,0 +1,182 @@
+package tf.festival.webstone.data;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Ordered block ids of a group, kept in a treap ordered by position. Every node knows the size of its subtree and its
+// parent, so the index of a block as well as inserting, removing and moving a block take O(log n), without renumbering
+// the blocks after it. Nodes are found by block id using a hash map, which also answers membership in constant time.
+class WebstoneBlockOrder {
+    private static class Node {
+        final UUID blockId;
+        final int priority = ThreadLocalRandom.current().nextInt();
+
+        Node left;
+        Node right;
+        Node parent;
+        int size = 1;
+
+        Node(UUID blockId) {
+            this.blockId = blockId;
+        }
+    }
+
+    private final HashMap<UUID, Node> nodes = new HashMap<>();
+    private Node root;
+
+    // Results of split, as Java can't return both halves
+    private Node splitLeft;
+    private Node splitRight;
+
+    public int size() {
+        return size(this.root);
+    }
+
+    public boolean contains(UUID blockId) {
+        return this.nodes.containsKey(blockId);
+    }
+
+    public int indexOf(UUID blockId) {
+        Node node = this.nodes.get(blockId);
+        return node != null ? indexOf(node) : -1;
+    }
+
+    // Index is expected to be within 0 and size (inclusive)
+    public boolean add(UUID blockId, int index) {
+        if (this.nodes.containsKey(blockId)) return false;
+
+        Node node = new Node(blockId);
+        this.nodes.put(blockId, node);
+        insert(node, index);
+
+        return true;
+    }
+
+    public boolean remove(UUID blockId) {
+        Node node = this.nodes.remove(blockId);
+        if (node == null) return false;
+
+        detach(node);
+        return true;
+    }
+
+    // Index is expected to be within 0 and size - 1 (inclusive)
+    public boolean move(UUID blockId, int index) {
+        Node node = this.nodes.get(blockId);
+        if (node == null) return false;
+
+        detach(node);
+        insert(node, index);
+
+        return true;
+    }
+
+    // Block ids in order, as a new list
+    public List<UUID> toList() {
+        ArrayList<UUID> blockIds = new ArrayList<>(size());
+        ArrayDeque<Node> stack = new ArrayDeque<>();
+
+        for (Node node = this.root; node != null || !stack.isEmpty(); node = node.right) {
+            while (node != null) {
+                stack.push(node);
+                node = node.left;
+            }
+
+            node = stack.pop();
+            blockIds.add(node.blockId);
+        }
+
+        return blockIds;
+    }
+
+    // region Treap
+    private static int size(Node node) {
+        return node != null ? node.size : 0;
+    }
+
+    private static int indexOf(Node node) {
+        int index = size(node.left);
+
+        for (Node child = node, parent = node.parent; parent != null; child = parent, parent = parent.parent) {
+            if (child == parent.right) index += size(parent.left) + 1;
+        }
+
+        return index;
+    }
+
+    private void insert(Node node, int index) {
+        split(this.root, index);
+        Node right = this.splitRight;
+
+        setRoot(merge(merge(this.splitLeft, node), right));
+    }
+
+    // Cuts the node out of the treap, leaving it without children
+    private void detach(Node node) {
+        split(this.root, indexOf(node));
+        Node left = this.splitLeft;
+
+        split(this.splitRight, 1);
+        setRoot(merge(left, this.splitRight));
+
+        node.left = null;
+        node.right = null;
+        node.parent = null;
+        node.size = 1;
+    }
+
+    private void setRoot(Node root) {
+        if (root != null) root.parent = null;
+        this.root = root;
+    }
+
+    // Splits the nodes into the first count nodes (splitLeft) and the remaining ones (splitRight)
+    private void split(Node node, int count) {
+        if (node == null) {
+            this.splitLeft = null;
+            this.splitRight = null;
+            return;
+        }
+
+        if (size(node.left) >= count) {
+            split(node.left, count);
+            node.left = this.splitRight;
+            this.splitRight = update(node);
+        } else {
+            split(node.right, count - size(node.left) - 1);
+            node.right = this.splitLeft;
+            this.splitLeft = update(node);
+        }
+
+        if (this.splitLeft != null) this.splitLeft.parent = null;
+        if (this.splitRight != null) this.splitRight.parent = null;
+    }
+
+    // All nodes of the left treap come before the ones of the right treap
+    private static Node merge(Node left, Node right) {
+        if (left == null) return right;
+        if (right == null) return left;
+
+        if (left.priority > right.priority) {
+            left.right = merge(left.right, right);
+            return update(left);
+        }
+
+        right.left = merge(left, right.left);
+        return update(right);
+    }
+
+    private static Node update(Node node) {
+        node.size = 1 + size(node.left) + size(node.right);
+
+        if (node.left != null) node.left.parent = node;
+        if (node.right != null) node.right.parent = node;
+
+        return node;
+    }
+    // endregion
+}
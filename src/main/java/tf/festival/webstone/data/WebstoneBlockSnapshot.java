@@ -0,0 +1,11 @@
+package tf.festival.webstone.data;
+
+import net.minecraft.core.BlockPos;
+import net.minecraft.resources.ResourceLocation;
+
+import java.util.UUID;
+
+// Dimension and position are null for blocks registered before locations were recorded
+public record WebstoneBlockSnapshot(UUID blockId, String name, boolean powered, int power, UUID registryId, UUID groupId,
+                                    ResourceLocation dimension, BlockPos position, boolean keepLoaded) {
+}
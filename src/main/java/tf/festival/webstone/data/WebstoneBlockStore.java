@@ -0,0 +1,413 @@
+package tf.festival.webstone.data;
+
+import net.minecraft.core.BlockPos;
+import net.minecraft.resources.ResourceLocation;
+import tf.festival.webstone.WebstoneRegistry;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.RandomAccess;
+import java.util.UUID;
+
+// Keeps the blocks of a registry in parallel primitive arrays ("slots"), in the order they were registered.
+// Blocks are found using an open addressing hash table over the two halves of their id. Names and group ids are
+// deduplicated and referenced by index, WebstoneBlock instances handed out by the store are only views into it.
+// Removed blocks leave a tombstone in their slot, tombstones are compacted away before the blocks are read in order
+// or once they make up half of the slots, so removing many blocks doesn't move the following slots every time.
+public class WebstoneBlockStore {
+    private static final int FREE = -1;
+    private static final int NO_GROUP = -1;
+    private static final int NO_DIMENSION = -1;
+
+    private static final int POWERED = 0x10;
+    private static final int POWER_MASK = 0x0F;
+    private static final int KEEP_LOADED = 0x20;
+    private static final int REMOVED = 0x40;
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final UUID registryId;
+
+    private long[] mostSignificantBits = new long[INITIAL_CAPACITY];
+    private long[] leastSignificantBits = new long[INITIAL_CAPACITY];
+    // Powered flag, power level and keep loaded flag packed into a single byte
+    private byte[] states = new byte[INITIAL_CAPACITY];
+    private int[] names = new int[INITIAL_CAPACITY];
+    private int[] groups = new int[INITIAL_CAPACITY];
+    // Block positions packed using BlockPos.asLong, only valid if the dimension is known
+    private int[] dimensions = new int[INITIAL_CAPACITY];
+    private long[] positions = new long[INITIAL_CAPACITY];
+    // Stored blocks, and used slots including tombstones
+    private int size;
+    private int slotCount;
+
+    // Slot of every block, at the position of its hash or the next free position after it (linear probing).
+    // Kept at most half full, so lookups rarely probe more than a few positions.
+    private int[] table = newTable(INITIAL_CAPACITY * 2);
+
+    private final WebstoneValuePool<String> namePool = new WebstoneValuePool<>();
+    private final WebstoneValuePool<UUID> groupPool = new WebstoneValuePool<>();
+    private final WebstoneValuePool<ResourceLocation> dimensionPool = new WebstoneValuePool<>();
+
+    private final List<WebstoneBlock> blocks = new BlockList();
+
+    public WebstoneBlockStore(UUID registryId) {
+        this.registryId = registryId;
+    }
+
+    public UUID getRegistryId() {
+        return this.registryId;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    // Views of all blocks in registration order, created when accessed
+    public List<WebstoneBlock> getBlocks() {
+        return this.blocks;
+    }
+
+    // Copies the current values, names, group ids and dimensions are resolved so the copy doesn't depend on the pools
+    public List<WebstoneBlockSnapshot> snapshot() {
+        compact();
+
+        String[] names = new String[this.size];
+        UUID[] groupIds = new UUID[this.size];
+        ResourceLocation[] dimensions = new ResourceLocation[this.size];
+
+        for (int slot = 0; slot < this.size; slot++) {
+            names[slot] = getName(slot);
+            groupIds[slot] = getGroupId(slot);
+            dimensions[slot] = getDimension(slot);
+        }
+
+        return new Snapshot(this.registryId, Arrays.copyOf(this.mostSignificantBits, this.size),
+            Arrays.copyOf(this.leastSignificantBits, this.size), Arrays.copyOf(this.states, this.size), names, groupIds,
+            dimensions, Arrays.copyOf(this.positions, this.size));
+    }
+
+    public boolean contains(UUID blockId) {
+        return indexOf(blockId) != -1;
+    }
+
+    public WebstoneBlock get(UUID blockId) {
+        return contains(blockId) ? new WebstoneBlock(blockId, this) : null;
+    }
+
+    // Takes over the values of the block, which then becomes a view into the store
+    public boolean add(WebstoneBlock block) {
+        UUID blockId = block.getBlockId();
+        if (contains(blockId)) return false;
+
+        ensureCapacity(this.slotCount + 1);
+
+        int slot = this.slotCount++;
+        this.size++;
+        this.mostSignificantBits[slot] = blockId.getMostSignificantBits();
+        this.leastSignificantBits[slot] = blockId.getLeastSignificantBits();
+        this.states[slot] = (byte) (packState(block.isPowered(), block.getPower()) | (block.isKeepLoaded() ? KEEP_LOADED : 0));
+        this.names[slot] = this.namePool.acquire(block.getName());
+        this.groups[slot] = block.getGroupId() != null ? this.groupPool.acquire(block.getGroupId()) : NO_GROUP;
+        this.dimensions[slot] = block.getDimension() != null ? this.dimensionPool.acquire(block.getDimension()) : NO_DIMENSION;
+        this.positions[slot] = block.getPosition() != null ? block.getPosition().asLong() : 0;
+
+        insert(slot);
+        block.attach(this);
+
+        return true;
+    }
+
+    // Hands the values back to the block and leaves a tombstone in its slot, so the registration order is kept
+    public boolean remove(WebstoneBlock block) {
+        int position = find(block.getBlockId());
+        if (position == -1) return false;
+
+        int slot = this.table[position];
+        block.detach(getName(slot), isPowered(slot), getPower(slot), getGroupId(slot), getDimension(slot), getPosition(slot), isKeepLoaded(slot));
+
+        this.namePool.release(this.names[slot]);
+        if (this.groups[slot] != NO_GROUP) this.groupPool.release(this.groups[slot]);
+        if (this.dimensions[slot] != NO_DIMENSION) this.dimensionPool.release(this.dimensions[slot]);
+
+        delete(position);
+
+        this.states[slot] = REMOVED;
+        this.size--;
+
+        // Tombstones at the end are just dropped, others only make up at most half of the slots
+        while (this.slotCount > 0 && this.states[this.slotCount - 1] == REMOVED) {
+            this.slotCount--;
+        }
+
+        if ((this.slotCount - this.size) * 2 > this.slotCount) {
+            compact();
+        }
+
+        return true;
+    }
+
+    // region Slots
+    int indexOf(UUID blockId) {
+        int position = find(blockId);
+        return position != -1 ? this.table[position] : -1;
+    }
+
+    String getName(int slot) {
+        return this.namePool.get(this.names[slot]);
+    }
+
+    boolean setName(int slot, String name) {
+        if (name.equals(getName(slot))) return false;
+
+        int previous = this.names[slot];
+        this.names[slot] = this.namePool.acquire(name);
+        this.namePool.release(previous);
+
+        WebstoneRegistry.markModified(this.registryId);
+        return true;
+    }
+
+    boolean isPowered(int slot) {
+        return (this.states[slot] & POWERED) != 0;
+    }
+
+    int getPower(int slot) {
+        return this.states[slot] & POWER_MASK;
+    }
+
+    boolean setState(int slot, boolean powered, int power) {
+        byte state = (byte) ((this.states[slot] & KEEP_LOADED) | packState(powered, power));
+        if (state == this.states[slot]) return false;
+
+        this.states[slot] = state;
+
+        WebstoneRegistry.markModified(this.registryId);
+        return true;
+    }
+
+    boolean isKeepLoaded(int slot) {
+        return (this.states[slot] & KEEP_LOADED) != 0;
+    }
+
+    boolean setKeepLoaded(int slot, boolean keepLoaded) {
+        if (keepLoaded == isKeepLoaded(slot)) return false;
+
+        this.states[slot] = (byte) (keepLoaded ? this.states[slot] | KEEP_LOADED : this.states[slot] & ~KEEP_LOADED);
+
+        WebstoneRegistry.markModified(this.registryId);
+        return true;
+    }
+
+    UUID getGroupId(int slot) {
+        return this.groups[slot] != NO_GROUP ? this.groupPool.get(this.groups[slot]) : null;
+    }
+
+    void setGroupId(int slot, UUID groupId) {
+        int previous = this.groups[slot];
+        this.groups[slot] = groupId != null ? this.groupPool.acquire(groupId) : NO_GROUP;
+        if (previous != NO_GROUP) this.groupPool.release(previous);
+
+        WebstoneRegistry.markModified(this.registryId);
+    }
+
+    ResourceLocation getDimension(int slot) {
+        return this.dimensions[slot] != NO_DIMENSION ? this.dimensionPool.get(this.dimensions[slot]) : null;
+    }
+
+    BlockPos getPosition(int slot) {
+        return this.dimensions[slot] != NO_DIMENSION ? BlockPos.of(this.positions[slot]) : null;
+    }
+
+    boolean setLocation(int slot, ResourceLocation dimension, BlockPos position) {
+        long packedPosition = position != null ? position.asLong() : 0;
+        if (Objects.equals(dimension, getDimension(slot)) && packedPosition == this.positions[slot]) return false;
+
+        int previous = this.dimensions[slot];
+        this.dimensions[slot] = dimension != null ? this.dimensionPool.acquire(dimension) : NO_DIMENSION;
+        this.positions[slot] = packedPosition;
+        if (previous != NO_DIMENSION) this.dimensionPool.release(previous);
+
+        WebstoneRegistry.markModified(this.registryId);
+        return true;
+    }
+
+    private static byte packState(boolean powered, int power) {
+        return (byte) ((powered ? POWERED : 0) | (power & POWER_MASK));
+    }
+
+    // Moves the stored blocks down over the tombstones, keeping their order, and rebuilds the hash table for the new slots
+    private void compact() {
+        if (this.slotCount == this.size) return;
+
+        int target = 0;
+        for (int slot = 0; slot < this.slotCount; slot++) {
+            if (this.states[slot] == REMOVED) continue;
+
+            if (target != slot) {
+                this.mostSignificantBits[target] = this.mostSignificantBits[slot];
+                this.leastSignificantBits[target] = this.leastSignificantBits[slot];
+                this.states[target] = this.states[slot];
+                this.names[target] = this.names[slot];
+                this.groups[target] = this.groups[slot];
+                this.dimensions[target] = this.dimensions[slot];
+                this.positions[target] = this.positions[slot];
+            }
+
+            target++;
+        }
+
+        this.slotCount = target;
+
+        Arrays.fill(this.table, FREE);
+        for (int slot = 0; slot < this.slotCount; slot++) {
+            insert(slot);
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        // Tombstones are reused before the arrays grow
+        if (capacity > this.mostSignificantBits.length && this.slotCount > this.size) {
+            compact();
+            capacity = this.slotCount + 1;
+        }
+
+        if (capacity > this.mostSignificantBits.length) {
+            int newCapacity = Math.max(capacity, this.mostSignificantBits.length * 2);
+
+            this.mostSignificantBits = Arrays.copyOf(this.mostSignificantBits, newCapacity);
+            this.leastSignificantBits = Arrays.copyOf(this.leastSignificantBits, newCapacity);
+            this.states = Arrays.copyOf(this.states, newCapacity);
+            this.names = Arrays.copyOf(this.names, newCapacity);
+            this.groups = Arrays.copyOf(this.groups, newCapacity);
+            this.dimensions = Arrays.copyOf(this.dimensions, newCapacity);
+            this.positions = Arrays.copyOf(this.positions, newCapacity);
+        }
+
+        if (capacity * 2 > this.table.length) {
+            this.table = newTable(Integer.highestOneBit(capacity * 2 - 1) << 1);
+
+            for (int slot = 0; slot < this.slotCount; slot++) {
+                if (this.states[slot] != REMOVED) insert(slot);
+            }
+        }
+    }
+    // endregion
+
+    // region Hash Table
+    private static int[] newTable(int capacity) {
+        int[] table = new int[capacity];
+        Arrays.fill(table, FREE);
+
+        return table;
+    }
+
+    private static int hash(long mostSignificantBits, long leastSignificantBits) {
+        return (int) (((mostSignificantBits ^ leastSignificantBits) * 0x9E3779B97F4A7C15L) >>> 32);
+    }
+
+    // Returns the table position of the block, or -1
+    private int find(UUID blockId) {
+        long mostSignificantBits = blockId.getMostSignificantBits();
+        long leastSignificantBits = blockId.getLeastSignificantBits();
+
+        int mask = this.table.length - 1;
+        int position = hash(mostSignificantBits, leastSignificantBits) & mask;
+
+        int slot;
+        while ((slot = this.table[position]) != FREE) {
+            if (this.mostSignificantBits[slot] == mostSignificantBits && this.leastSignificantBits[slot] == leastSignificantBits) {
+                return position;
+            }
+
+            position = (position + 1) & mask;
+        }
+
+        return -1;
+    }
+
+    private void insert(int slot) {
+        int mask = this.table.length - 1;
+        int position = hash(this.mostSignificantBits[slot], this.leastSignificantBits[slot]) & mask;
+
+        while (this.table[position] != FREE) {
+            position = (position + 1) & mask;
+        }
+
+        this.table[position] = slot;
+    }
+
+    // Moves following entries back into the hole where allowed, so no probe sequence is interrupted by it
+    private void delete(int position) {
+        int mask = this.table.length - 1;
+        int hole = position;
+
+        for (int next = (hole + 1) & mask; this.table[next] != FREE; next = (next + 1) & mask) {
+            int slot = this.table[next];
+            int home = hash(this.mostSignificantBits[slot], this.leastSignificantBits[slot]) & mask;
+
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                this.table[hole] = slot;
+                hole = next;
+            }
+        }
+
+        this.table[hole] = FREE;
+    }
+    // endregion
+
+    // Records are only created when accessed, so publishing a snapshot copies a few arrays instead of allocating per block
+    private static class Snapshot extends AbstractList<WebstoneBlockSnapshot> implements RandomAccess {
+        private final UUID registryId;
+        private final long[] mostSignificantBits;
+        private final long[] leastSignificantBits;
+        private final byte[] states;
+        private final String[] names;
+        private final UUID[] groupIds;
+        private final ResourceLocation[] dimensions;
+        private final long[] positions;
+
+        Snapshot(UUID registryId, long[] mostSignificantBits, long[] leastSignificantBits, byte[] states, String[] names, UUID[] groupIds,
+                 ResourceLocation[] dimensions, long[] positions) {
+            this.registryId = registryId;
+            this.mostSignificantBits = mostSignificantBits;
+            this.leastSignificantBits = leastSignificantBits;
+            this.states = states;
+            this.names = names;
+            this.groupIds = groupIds;
+            this.dimensions = dimensions;
+            this.positions = positions;
+        }
+
+        @Override
+        public WebstoneBlockSnapshot get(int index) {
+            return new WebstoneBlockSnapshot(new UUID(this.mostSignificantBits[index], this.leastSignificantBits[index]), this.names[index],
+                (this.states[index] & POWERED) != 0, this.states[index] & POWER_MASK, this.registryId, this.groupIds[index],
+                this.dimensions[index], this.dimensions[index] != null ? BlockPos.of(this.positions[index]) : null,
+                (this.states[index] & KEEP_LOADED) != 0);
+        }
+
+        @Override
+        public int size() {
+            return this.states.length;
+        }
+    }
+
+    // Compacted when read, so the index of a block is its slot
+    private class BlockList extends AbstractList<WebstoneBlock> implements RandomAccess {
+        @Override
+        public WebstoneBlock get(int index) {
+            if (index < 0 || index >= size) throw new IndexOutOfBoundsException(index);
+            compact();
+
+            return new WebstoneBlock(new UUID(mostSignificantBits[index], leastSignificantBits[index]), WebstoneBlockStore.this);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package tf.festival.webstone.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+// Stores values shared by many blocks, like names and group ids, only once and hands out indexes to them.
+// Values are reference counted, indexes of values no longer referenced are reused.
+class WebstoneValuePool<T> {
+    private final ArrayList<T> values = new ArrayList<>();
+    private final HashMap<T, Integer> indexes = new HashMap<>();
+    private int[] referenceCounts = new int[16];
+
+    private int[] freeIndexes = new int[16];
+    private int freeCount;
+
+    public int acquire(T value) {
+        Integer index = indexes.get(value);
+
+        if (index == null) {
+            if (freeCount > 0) {
+                index = freeIndexes[--freeCount];
+                values.set(index, value);
+            } else {
+                index = values.size();
+                values.add(value);
+
+                if (index == referenceCounts.length) {
+                    referenceCounts = Arrays.copyOf(referenceCounts, index * 2);
+                }
+            }
+
+            indexes.put(value, index);
+        }
+
+        referenceCounts[index]++;
+        return index;
+    }
+
+    public void release(int index) {
+        if (--referenceCounts[index] > 0) return;
+
+        indexes.remove(values.get(index));
+        values.set(index, null);
+
+        if (freeCount == freeIndexes.length) {
+            freeIndexes = Arrays.copyOf(freeIndexes, freeCount * 2);
+        }
+
+        freeIndexes[freeCount++] = index;
+    }
+
+    public T get(int index) {
+        return values.get(index);
+    }
+
+    public int size() {
+        return indexes.size();
+    }
+}
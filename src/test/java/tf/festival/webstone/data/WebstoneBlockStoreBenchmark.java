@@ -0,0 +1,61 @@
+package tf.festival.webstone.data;
+
+import net.minecraft.core.BlockPos;
+import net.minecraft.resources.ResourceLocation;
+
+import java.lang.ref.Reference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+// Compares the heap used by 100k blocks kept as objects, like registries did before the block store, with the same
+// blocks in a WebstoneBlockStore. Values are created per block, as they are when loading the world data.
+// Standalone harness, run the main method with the test runtime classpath (e.g. -Xmx1g -XX:+UseSerialGC).
+public class WebstoneBlockStoreBenchmark {
+    private static final int BLOCK_COUNT = 100_000;
+    private static final int NAME_COUNT = 1_000;
+    private static final int GROUP_COUNT = 100;
+
+    public static void main(String[] args) {
+        long baseline = usedMemory();
+        List<WebstoneBlock> objects = createBlocks();
+        long objectBytes = usedMemory() - baseline;
+        Reference.reachabilityFence(objects);
+        objects = null;
+
+        baseline = usedMemory();
+        WebstoneBlockStore store = new WebstoneBlockStore(UUID.randomUUID());
+        for (WebstoneBlock block : createBlocks()) {
+            store.add(block);
+        }
+        long storeBytes = usedMemory() - baseline;
+        Reference.reachabilityFence(store);
+
+        System.out.printf("%d blocks as objects: %,d bytes (%d bytes per block)%n", BLOCK_COUNT, objectBytes, objectBytes / BLOCK_COUNT);
+        System.out.printf("%d blocks in store:   %,d bytes (%d bytes per block)%n", BLOCK_COUNT, storeBytes, storeBytes / BLOCK_COUNT);
+    }
+
+    private static List<WebstoneBlock> createBlocks() {
+        ArrayList<WebstoneBlock> blocks = new ArrayList<>(BLOCK_COUNT);
+
+        for (int i = 0; i < BLOCK_COUNT; i++) {
+            WebstoneBlock block = new WebstoneBlock(UUID.randomUUID(), new String("Lamp " + i % NAME_COUNT), i % 2 == 0, i % 16);
+            block.setGroupId(new UUID(0, i % GROUP_COUNT));
+            block.setLocation(new ResourceLocation("minecraft:overworld"), new BlockPos(i % 1000, 64, i / 1000));
+
+            blocks.add(block);
+        }
+
+        return blocks;
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+        }
+
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}